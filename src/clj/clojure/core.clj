@@ -90,6 +90,8 @@
    :added "1.0"
    :static true}
  conj (fn ^:static conj
+        ([] [])
+        ([coll] coll)
         ([coll x] (. clojure.lang.RT (conj coll x)))
         ([coll x & xs]
          ;;递归定义 conj 的多参数版本
@@ -2191,7 +2193,8 @@
   read demands. If you know in advance you will need history you can
   set :min-history to ensure it will be available when first needed (instead
   of after a read fault). History is limited, and the limit can be set
-  with :max-history."
+  with :max-history. Once no running transaction can read the oldest
+  value in history, commits drop it, back toward :min-history."
   {:added "1.0"
    :static true
    }
@@ -2389,17 +2392,32 @@
     (. ref (deref)))
 
 (defmacro sync
-  "transaction-flags => TBD, pass nil for now
+  "transaction-flags => nil or a map of:
+
+  :contention-manager - how a transaction proceeds when another's write
+  gets in its way: :aged (the default, see
+  clojure.lang.LockingTransaction/setContentionManager), :oldest-first,
+  :karma, :backoff or a clojure.lang.LockingTransaction$ContentionManager
+
+  :read-only - if true, the transaction can't ref-set, alter or commute,
+  ensure does nothing, and it reads from a single snapshot with no
+  commit overhead
 
   Runs the exprs (in an implicit do) in a transaction that encompasses
   exprs and any nested calls.  Starts a transaction if none is already
   running on this thread. Any uncaught exception will abort the
   transaction and flow out of sync. The exprs may be run more than
-  once, but any effects on Refs will be atomic."
+  once, but any effects on Refs will be atomic. A nested sync runs in
+  the enclosing transaction, ignoring its flags."
   {:added "1.0"}
-  [flags-ignored-for-now & body]
-  `(. clojure.lang.LockingTransaction
-      (runInTransaction (fn [] ~@body))))
+  [flags & body]
+  (if (nil? flags)
+    `(. clojure.lang.LockingTransaction
+        (runInTransaction (fn [] ~@body)))
+    (let [f (with-meta (gensym "flags") {:tag 'clojure.lang.IPersistentMap})]
+      `(let* [~f ~flags]
+         (. clojure.lang.LockingTransaction
+            (runInTransaction (fn [] ~@body) ~f))))))
 
 
 (defmacro io!
@@ -2503,15 +2521,107 @@
   ([f arg1 arg2 arg3 & more]
    (fn [& args] (apply f arg1 arg2 arg3 (concat more args)))))
 
+;;;;;;;;;;;;;;;;;;; reduction state ;;;;;;;;;;;;;;;;;;;;;;;
+(defn reduced
+  "Wraps x in a way such that a reduce will terminate with the value x"
+  {:added "1.5"}
+  [x]
+  (clojure.lang.Reduced. x))
+
+(defn reduced?
+  "Returns true if x is the result of a call to reduced"
+  {:inline (fn [x] `(clojure.lang.RT/isReduced ~x ))
+   :inline-arities #{1}
+   :added "1.5"}
+  ([x] (clojure.lang.RT/isReduced x)))
+
+(defn ensure-reduced
+  "If x is already reduced?, returns it, else returns (reduced x)"
+  {:added "1.7"}
+  [x]
+  (if (reduced? x) x (reduced x)))
+
+(defn unreduced
+  "If x is reduced?, returns (deref x), else returns x"
+  {:added "1.7"}
+  [x]
+  (if (reduced? x) (deref x) x))
+
+(defn volatile!
+  "Creates and returns a Volatile with an initial value of val."
+  {:added "1.7"
+   :tag clojure.lang.Volatile}
+  [val]
+  (clojure.lang.Volatile. val))
+
+(defn vreset!
+  "Sets the value of volatile to newval without regard for the
+   current value. Returns newval."
+  {:added "1.7"}
+  [^clojure.lang.Volatile vol newval]
+  (.reset vol newval))
+
+(defmacro vswap!
+  "Non-atomically swaps the value of the volatile as if:
+   (apply f current-value-of-vol args). Returns the value that
+   was swapped in."
+  {:added "1.7"}
+  [vol f & args]
+  (let [v (with-meta vol {:tag 'clojure.lang.Volatile})]
+    `(.reset ~v (~f (.deref ~v) ~@args))))
+
+(defn volatile?
+  "Returns true if x is a volatile."
+  {:added "1.7"}
+  [x]
+  (instance? clojure.lang.Volatile x))
+
+(defn completing
+  "Takes a reducing function f of 2 args and returns a fn suitable for
+  transduce by adding an arity-1 signature that calls cf (default -
+  identity) on the result argument."
+  {:added "1.7"}
+  ([f] (completing f identity))
+  ([f cf]
+     (fn
+       ([] (f))
+       ([x] (cf x))
+       ([x y] (f x y)))))
+
 ;;;;;;;;;;;;;;;;;;; sequence fns  ;;;;;;;;;;;;;;;;;;;;;;;
 (defn sequence
   "Coerces coll to a (possibly empty) sequence, if it is not already
-  one. Will not force a lazy seq. (sequence nil) yields ()"
+  one. Will not force a lazy seq. (sequence nil) yields (). When a
+  transducer is supplied, returns a lazy sequence of applications of
+  the transform to the items in coll, pulling items only as needed
+  and without building a seq for each step of the transform."
   {:added "1.0"
    :static true}
-  [coll]
-   (if (seq? coll) coll
-    (or (seq coll) ())))
+  ([coll]
+     (if (seq? coll) coll
+         (or (seq coll) ())))
+  ([xform coll]
+     (let [buf (java.util.ArrayList.)
+           rf (xform (fn
+                       ([b] b)
+                       ([^java.util.ArrayList b x] (.add b x) b)))
+           drain (fn [tail]
+                   (if (.isEmpty buf)
+                     tail
+                     (let [c (clojure.lang.ArrayChunk. (.toArray buf))]
+                       (.clear buf)
+                       (chunk-cons c tail))))
+           step (fn step [s]
+                  (lazy-seq
+                   (loop [s s]
+                     (if s
+                       (if (reduced? (rf buf (first s)))
+                         (do (rf buf) (drain nil))
+                         (if (.isEmpty buf)
+                           (recur (next s))
+                           (drain (step (next s)))))
+                       (do (rf buf) (drain nil))))))]
+       (or (seq (step (seq coll))) ()))))
 
 (defn every?
   "Returns true if (pred x) is logical true for every x in coll, else
@@ -2573,9 +2683,19 @@
   set of first items of each coll, followed by applying f to the set
   of second items in each coll, until any one of the colls is
   exhausted.  Any remaining items in other colls are ignored. Function
-  f should accept number-of-colls arguments."
+  f should accept number-of-colls arguments. Returns a transducer when
+  no collection is provided."
   {:added "1.0"
    :static true}
+  ([f]
+    (fn [rf]
+      (fn
+        ([] (rf))
+        ([result] (rf result))
+        ([result input]
+           (rf result (f input)))
+        ([result input & inputs]
+           (rf result (apply f input inputs))))))
   ([f coll]
    (lazy-seq
     (when-let [s (seq coll)]
@@ -2607,19 +2727,33 @@
                       (cons (map first ss) (step (map rest ss)))))))]
      (map #(apply f %) (step (conj colls c3 c2 c1))))))
 
+(def ^{:declared true} cat)
+
 (defn mapcat
   "Returns the result of applying concat to the result of applying map
-  to f and colls.  Thus function f should return a collection."
+  to f and colls.  Thus function f should return a collection. Returns
+  a transducer when no collections are provided"
   {:added "1.0"
    :static true}
-  [f & colls]
-    (apply concat (apply map f colls)))
+  ([f] (comp (map f) cat))
+  ([f & colls]
+     (apply concat (apply map f colls))))
 
 (defn filter
   "Returns a lazy sequence of the items in coll for which
-  (pred item) returns true. pred must be free of side-effects."
-  {:added "1.0"
-   :static true}
+  (pred item) returns true. pred must be free of side-effects.
+  Returns a transducer when no collection is provided."
+  {:added "1.0"
+   :static true}
+  ([pred]
+    (fn [rf]
+      (fn
+        ([] (rf))
+        ([result] (rf result))
+        ([result input]
+           (if (pred input)
+             (rf result input)
+             result)))))
   ([pred coll]
    (lazy-seq
     (when-let [s (seq coll)]
@@ -2639,45 +2773,86 @@
 
 (defn remove
   "Returns a lazy sequence of the items in coll for which
-  (pred item) returns false. pred must be free of side-effects."
+  (pred item) returns false. pred must be free of side-effects.
+  Returns a transducer when no collection is provided."
   {:added "1.0"
    :static true}
-  [pred coll]
-  (filter (complement pred) coll))
+  ([pred] (filter (complement pred)))
+  ([pred coll]
+     (filter (complement pred) coll)))
 
 (defn take
   "Returns a lazy sequence of the first n items in coll, or all items if
-  there are fewer than n."
-  {:added "1.0"
-   :static true}
-  [n coll]
-  (lazy-seq
-   (when (pos? n)
-     (when-let [s (seq coll)]
-      (cons (first s) (take (dec n) (rest s)))))))
+  there are fewer than n.  Returns a stateful transducer when
+  no collection is provided."
+  {:added "1.0"
+   :static true}
+  ([n]
+     (fn [rf]
+       (let [nv (volatile! n)]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (let [n @nv
+                    nn (vswap! nv dec)
+                    result (if (pos? n)
+                             (rf result input)
+                             result)]
+                (if (not (pos? nn))
+                  (ensure-reduced result)
+                  result)))))))
+  ([n coll]
+     (lazy-seq
+      (when (pos? n)
+        (when-let [s (seq coll)]
+          (cons (first s) (take (dec n) (rest s))))))))
 
 (defn take-while
   "Returns a lazy sequence of successive items from coll while
-  (pred item) returns true. pred must be free of side-effects."
+  (pred item) returns true. pred must be free of side-effects.
+  Returns a transducer when no collection is provided."
   {:added "1.0"
    :static true}
-  [pred coll]
-  (lazy-seq
-   (when-let [s (seq coll)]
-       (when (pred (first s))
-         (cons (first s) (take-while pred (rest s)))))))
+  ([pred]
+     (fn [rf]
+       (fn
+         ([] (rf))
+         ([result] (rf result))
+         ([result input]
+            (if (pred input)
+              (rf result input)
+              (reduced result))))))
+  ([pred coll]
+     (lazy-seq
+      (when-let [s (seq coll)]
+        (when (pred (first s))
+          (cons (first s) (take-while pred (rest s))))))))
 
 (defn drop
-  "Returns a lazy sequence of all but the first n items in coll."
-  {:added "1.0"
-   :static true}
-  [n coll]
-  (let [step (fn [n coll]
-               (let [s (seq coll)]
-                 (if (and (pos? n) s)
-                   (recur (dec n) (rest s))
-                   s)))]
-    (lazy-seq (step n coll))))
+  "Returns a lazy sequence of all but the first n items in coll.
+  Returns a stateful transducer when no collection is provided."
+  {:added "1.0"
+   :static true}
+  ([n]
+     (fn [rf]
+       (let [nv (volatile! n)]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (let [n @nv]
+                (vswap! nv dec)
+                (if (pos? n)
+                  result
+                  (rf result input))))))))
+  ([n coll]
+     (let [step (fn [n coll]
+                  (let [s (seq coll)]
+                    (if (and (pos? n) s)
+                      (recur (dec n) (rest s))
+                      s)))]
+       (lazy-seq (step n coll)))))
 
 (defn drop-last
   "Return a lazy sequence of all but the last n (default 1) items in coll"
@@ -2699,16 +2874,30 @@
 
 (defn drop-while
   "Returns a lazy sequence of the items in coll starting from the first
-  item for which (pred item) returns logical false."
-  {:added "1.0"
-   :static true}
-  [pred coll]
-  (let [step (fn [pred coll]
-               (let [s (seq coll)]
-                 (if (and s (pred (first s)))
-                   (recur pred (rest s))
-                   s)))]
-    (lazy-seq (step pred coll))))
+  item for which (pred item) returns logical false.  Returns a stateful
+  transducer when no collection is provided."
+  {:added "1.0"
+   :static true}
+  ([pred]
+     (fn [rf]
+       (let [dv (volatile! true)]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (let [drop? @dv]
+                (if (and drop? (pred input))
+                  result
+                  (do
+                    (vreset! dv nil)
+                    (rf result input)))))))))
+  ([pred coll]
+     (let [step (fn [pred coll]
+                  (let [s (seq coll)]
+                    (if (and s (pred (first s)))
+                      (recur pred (rest s))
+                      s)))]
+       (lazy-seq (step pred coll)))))
 
 (defn cycle
   "Returns a lazy (infinite!) sequence of repetitions of the items in coll."
@@ -2763,20 +2952,21 @@
   ([end] (range 0 end 1))
   ([start end] (range start end 1))
   ([start end step]
-   (lazy-seq
-    (let [b (chunk-buffer 32)
-          comp (cond (or (zero? step) (= start end)) not=
-                     (pos? step) <
-                     (neg? step) >)]
-      (loop [i start]
-        (if (and (< (count b) 32)
-                 (comp i end))
-          (do
-            (chunk-append b i)
-            (recur (+ i step)))
-          (chunk-cons (chunk b)
-                      (when (comp i end)
-                        (range i end step)))))))))
+   (or (clojure.lang.LongRange/create start end step)
+       (lazy-seq
+        (let [b (chunk-buffer 32)
+              comp (cond (or (zero? step) (= start end)) not=
+                         (pos? step) <
+                         (neg? step) >)]
+          (loop [i start]
+            (if (and (< (count b) 32)
+                     (comp i end))
+              (do
+                (chunk-append b i)
+                (recur (+ i step)))
+              (chunk-cons (chunk b)
+                          (when (comp i end)
+                            (range i end step))))))))))
 
 (defn merge
   "Returns a map that consists of the rest of the maps conj-ed onto
@@ -2813,14 +3003,21 @@
   {:added "1.0"
    :static true}
   [keys vals]
-    (loop [map {}
-           ks (seq keys)
-           vs (seq vals)]
-      (if (and ks vs)
-        (recur (assoc map (first ks) (first vs))
-               (next ks)
-               (next vs))
-        map)))
+    (let [kvs (java.util.ArrayList.)]
+      (loop [ks (seq keys)
+             vs (seq vals)]
+        (when (and ks vs)
+          (.add kvs (first ks))
+          (.add kvs (first vs))
+          (recur (next ks) (next vs))))
+      (if (> (.size kvs) 16)
+        (clojure.lang.PersistentHashMap/createSized (.toArray kvs) (.size kvs))
+        (loop [map {}
+               i 0]
+          (if (< i (.size kvs))
+            (recur (assoc map (.get kvs i) (.get kvs (inc i)))
+                   (+ i 2))
+            map)))))
 
 (defmacro declare
   "defs the supplied var names with no bindings, useful for making forward declarations."
@@ -3103,8 +3300,10 @@
   may happen at different 'places' depending on the concrete type."
   {:added "1.1"
    :static true}
-  [^clojure.lang.ITransientCollection coll x]
-  (.conj coll x))
+  ([] (transient []))
+  ([coll] coll)
+  ([^clojure.lang.ITransientCollection coll x]
+     (.conj coll x)))
 
 (defn assoc!
   "When applied to a transient map, adds mapping of key(s) to
@@ -3984,13 +4183,25 @@
   (.removeAlias (the-ns ns) sym))
 
 (defn take-nth
-  "Returns a lazy seq of every nth item in coll."
-  {:added "1.0"
-   :static true}
-  [n coll]
-    (lazy-seq
-     (when-let [s (seq coll)]
-       (cons (first s) (take-nth n (drop n s))))))
+  "Returns a lazy seq of every nth item in coll.  Returns a stateful
+  transducer when no collection is provided."
+  {:added "1.0"
+   :static true}
+  ([n]
+     (fn [rf]
+       (let [iv (volatile! -1)]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (let [i (vswap! iv inc)]
+                (if (zero? (rem i n))
+                  (rf result input)
+                  result)))))))
+  ([n coll]
+     (lazy-seq
+      (when-let [s (seq coll)]
+        (cons (first s) (take-nth n (drop n s)))))))
 
 (defn interleave
   "Returns a lazy seq of the first item in each coll, then the second etc."
@@ -4639,10 +4850,22 @@
    (reduce1 #(min-key k %1 %2) (min-key k x y) more)))
 
 (defn distinct
-  "Returns a lazy sequence of the elements of coll with duplicates removed"
+  "Returns a lazy sequence of the elements of coll with duplicates removed.
+  Returns a stateful transducer when no collection is provided."
   {:added "1.0"
    :static true}
-  [coll]
+  ([]
+     (fn [rf]
+       (let [seen (volatile! #{})]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (if (contains? @seen input)
+                result
+                (do (vswap! seen conj input)
+                    (rf result input))))))))
+  ([coll]
     (let [step (fn step [xs seen]
                    (lazy-seq
                     ((fn [[f :as xs] seen]
@@ -4651,24 +4874,27 @@
                           (recur (rest s) seen)
                           (cons f (step (rest s) (conj seen f))))))
                      xs seen)))]
-      (step coll #{})))
+      (step coll #{}))))
 
 
 
 (defn replace
   "Given a map of replacement pairs and a vector/collection, returns a
   vector/seq with any elements = a key in smap replaced with the
-  corresponding val in smap"
+  corresponding val in smap.  Returns a transducer when no collection
+  is provided."
   {:added "1.0"
    :static true}
-  [smap coll]
-    (if (vector? coll)
-      (reduce1 (fn [v i]
-                (if-let [e (find smap (nth v i))]
-                        (assoc v i (val e))
-                        v))
-              coll (range (count coll)))
-      (map #(if-let [e (find smap %)] (val e) %) coll)))
+  ([smap]
+     (map #(if-let [e (find smap %)] (val e) %)))
+  ([smap coll]
+     (if (vector? coll)
+       (reduce1 (fn [v i]
+                  (if-let [e (find smap (nth v i))]
+                    (assoc v i (val e))
+                    v))
+                coll (range (count coll)))
+       (map #(if-let [e (find smap %)] (val e) %) coll))))
 
 (defmacro dosync
   "Runs the exprs (in an implicit do) in a transaction that encompasses
@@ -4801,10 +5027,27 @@
   [coll] (clojure.lang.Murmur3/hashUnordered coll))
 
 (defn interpose
-  "Returns a lazy seq of the elements of coll separated by sep"
-  {:added "1.0"
-   :static true}
-  [sep coll] (drop 1 (interleave (repeat sep) coll)))
+  "Returns a lazy seq of the elements of coll separated by sep.
+  Returns a stateful transducer when no collection is provided."
+  {:added "1.0"
+   :static true}
+  ([sep]
+     (fn [rf]
+       (let [started (volatile! false)]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (if @started
+                (let [sepr (rf result sep)]
+                  (if (reduced? sepr)
+                    sepr
+                    (rf sepr input)))
+                (do
+                  (vreset! started true)
+                  (rf result input))))))))
+  ([sep coll]
+     (drop 1 (interleave (repeat sep) coll))))
 
 (defmacro definline
   "Experimental - like defmacro, except defines a named function whose
@@ -6278,20 +6521,6 @@
             `(let [~ge ~e] (case* ~ge ~shift ~mask ~default ~imap ~switch-type :hash-identity ~skip-check))))))))
 
 
-;; redefine reduce with internal-reduce
-(defn reduced
-  "Wraps x in a way such that a reduce will terminate with the value x"
-  {:added "1.5"}
-  [x]
-  (clojure.lang.Reduced. x))
-
-(defn reduced?
-  "Returns true if x is the result of a call to reduced"
-  {:inline (fn [x] `(clojure.lang.RT/isReduced ~x ))
-   :inline-arities #{1}
-   :added "1.5"}
-  ([x] (clojure.lang.RT/isReduced x)))
-
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;; helper files ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 (alter-meta! (find-ns 'clojure.core) assoc :doc "Fundamental library of the Clojure language")
 (load "core_proxy")
@@ -6341,12 +6570,37 @@
   [amap f init]
   (.kvreduce amap f init))
 
+ clojure.lang.PersistentCompactMap
+ (kv-reduce
+  [amap f init]
+  (.kvreduce amap f init))
+
  clojure.lang.PersistentTreeMap
  (kv-reduce
   [amap f init]
   (.kvreduce amap f init))
 
+ clojure.lang.PersistentBTreeMap
+ (kv-reduce
+  [amap f init]
+  (.kvreduce amap f init))
+
  clojure.lang.PersistentVector
+ (kv-reduce
+  [vec f init]
+  (.kvreduce vec f init))
+
+ clojure.lang.PersistentLongVector
+ (kv-reduce
+  [vec f init]
+  (.kvreduce vec f init))
+
+ clojure.lang.PersistentDoubleVector
+ (kv-reduce
+  [vec f init]
+  (.kvreduce vec f init))
+
+ clojure.lang.PersistentRRBVector
  (kv-reduce
   [vec f init]
   (.kvreduce vec f init)))
@@ -6362,15 +6616,82 @@
   ([f init coll]
      (clojure.core.protocols/kv-reduce coll f init)))
 
+(defn transduce
+  "reduce with a transformation of f (xf). If init is not
+  supplied, (f) will be called to produce it. f should be a reducing
+  step function that accepts both 1 and 2 arguments, if it accepts
+  only 2 you can add the arity-1 with 'completing'. Returns the result
+  of applying (the transformed) xf to init and the first item in coll,
+  then applying xf to that result and the 2nd item, etc. If coll
+  contains no items, returns init and f is not called. Note that
+  certain transforms may inject or skip items.  The transformed
+  function runs directly over coll's own reduce, so no intermediate
+  seqs are built."
+  {:added "1.7"}
+  ([xform f coll] (transduce xform f (f) coll))
+  ([xform f init coll]
+     (let [f (xform f)
+           ret (clojure.core.protocols/coll-reduce coll f init)]
+       (f ret))))
+
+(defn ^:private preserving-reduced
+  [rf]
+  #(let [ret (rf %1 %2)]
+     (if (reduced? ret)
+       (reduced ret)
+       ret)))
+
+(defn cat
+  "A transducer which concatenates the contents of each input, which must be a
+  collection, into the reduction."
+  {:added "1.7"}
+  [rf]
+  (let [rrf (preserving-reduced rf)]
+    (fn
+      ([] (rf))
+      ([result] (rf result))
+      ([result input]
+         (reduce rrf result input)))))
+
+(defn dedupe
+  "Returns a lazy sequence removing consecutive duplicates in coll.
+  Returns a transducer when no collection is provided."
+  {:added "1.7"}
+  ([]
+   (fn [rf]
+     (let [pv (volatile! ::none)]
+       (fn
+         ([] (rf))
+         ([result] (rf result))
+         ([result input]
+            (let [prior @pv]
+              (vreset! pv input)
+              (if (= prior input)
+                result
+                (rf result input))))))))
+  ([coll] (sequence (dedupe) coll)))
+
 (defn into
   "Returns a new coll consisting of to-coll with all of the items of
-  from-coll conjoined."
+  from-coll conjoined. A transducer may be supplied."
   {:added "1.0"
    :static true}
-  [to from]
-  (if (instance? clojure.lang.IEditableCollection to)
-    (with-meta (persistent! (reduce conj! (transient to) from)) (meta to))
-    (reduce conj to from)))
+  ([to from]
+     (cond
+      (and (instance? Iterable from)
+           (or (instance? clojure.lang.PersistentArrayMap to)
+               (instance? clojure.lang.PersistentHashMap to))
+           (zero? (count to)))
+      (clojure.lang.PersistentHashMap/intoEmpty to from)
+
+      (instance? clojure.lang.IEditableCollection to)
+      (with-meta (persistent! (reduce conj! (transient to) from)) (meta to))
+
+      :else (reduce conj to from)))
+  ([to xform from]
+     (if (instance? clojure.lang.IEditableCollection to)
+       (with-meta (persistent! (transduce xform conj! (transient to) from)) (meta to))
+       (transduce xform conj to from))))
 
 (defn mapv
   "Returns a vector consisting of the result of applying f to the
@@ -6633,17 +6954,47 @@
     (transient {}) coll)))
 
 (defn partition-by
-  "Applies f to each value in coll, splitting it each time f returns
-   a new value.  Returns a lazy seq of partitions."
+  "Applies f to each value in coll, splitting it each time f returns a
+   new value.  Returns a lazy seq of partitions.  Returns a stateful
+   transducer when no collection is provided."
   {:added "1.2"
    :static true}
-  [f coll]
-  (lazy-seq
-   (when-let [s (seq coll)]
-     (let [fst (first s)
-           fv (f fst)
-           run (cons fst (take-while #(= fv (f %)) (next s)))]
-       (cons run (partition-by f (seq (drop (count run) s))))))))
+  ([f]
+     (fn [rf]
+       (let [a (java.util.ArrayList.)
+             pv (volatile! ::none)]
+         (fn
+           ([] (rf))
+           ([result]
+              (let [result (if (.isEmpty a)
+                             result
+                             (let [v (vec (.toArray a))]
+                               ;;clear first!
+                               (.clear a)
+                               (unreduced (rf result v))))]
+                (rf result)))
+           ([result input]
+              (let [pval @pv
+                    val (f input)]
+                (vreset! pv val)
+                (if (or (identical? pval ::none)
+                        (= val pval))
+                  (do
+                    (.add a input)
+                    result)
+                  (let [v (vec (.toArray a))]
+                    (.clear a)
+                    (let [ret (rf result v)]
+                      (when-not (reduced? ret)
+                        (.add a input))
+                      ret)))))))))
+  ([f coll]
+     (lazy-seq
+      (when-let [s (seq coll)]
+        (let [fst (first s)
+              fv (f fst)
+              run (cons fst (take-while #(= fv (f %)) (next s)))]
+          (cons run (partition-by f (seq (drop (count run) s)))))))))
 
 (defn frequencies
   "Returns a map from distinct items in coll to the number of times
@@ -6682,9 +7033,30 @@
 
 (defn partition-all
   "Returns a lazy sequence of lists like partition, but may include
-  partitions with fewer than n items at the end."
+  partitions with fewer than n items at the end.  Returns a stateful
+  transducer when no collection is provided."
   {:added "1.2"
    :static true}
+  ([^long n]
+     (fn [rf]
+       (let [a (java.util.ArrayList. n)]
+         (fn
+           ([] (rf))
+           ([result]
+              (let [result (if (.isEmpty a)
+                             result
+                             (let [v (vec (.toArray a))]
+                               ;;clear first!
+                               (.clear a)
+                               (unreduced (rf result v))))]
+                (rf result)))
+           ([result input]
+              (.add a input)
+              (if (= n (.size a))
+                (let [v (vec (.toArray a))]
+                  (.clear a)
+                  (rf result v))
+                result))))))
   ([n coll]
      (partition-all n n coll))
   ([n step coll]
@@ -6706,10 +7078,19 @@
   "Returns a lazy sequence consisting of the result of applying f to 0
   and the first item of coll, followed by applying f to 1 and the second
   item in coll, etc, until coll is exhausted. Thus function f should
-  accept 2 arguments, index and item."
+  accept 2 arguments, index and item. Returns a stateful transducer when
+  no collection is provided."
   {:added "1.2"
    :static true}
-  [f coll]
+  ([f]
+     (fn [rf]
+       (let [i (volatile! -1)]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (rf result (f (vswap! i inc) input)))))))
+  ([f coll]
   (letfn [(mapi [idx coll]
             (lazy-seq
              (when-let [s (seq coll)]
@@ -6721,14 +7102,24 @@
                      (chunk-append b (f (+ idx i) (.nth c i))))
                    (chunk-cons (chunk b) (mapi (+ idx size) (chunk-rest s))))
                  (cons (f idx (first s)) (mapi (inc idx) (rest s)))))))]
-    (mapi 0 coll)))
+    (mapi 0 coll))))
 
 (defn keep
   "Returns a lazy sequence of the non-nil results of (f item). Note,
   this means false return values will be included.  f must be free of
-  side-effects."
+  side-effects.  Returns a transducer when no collection is provided."
   {:added "1.2"
    :static true}
+  ([f]
+   (fn [rf]
+     (fn
+       ([] (rf))
+       ([result] (rf result))
+       ([result input]
+          (let [v (f input)]
+            (if (nil? v)
+              result
+              (rf result v)))))))
   ([f coll]
    (lazy-seq
     (when-let [s (seq coll)]
@@ -6749,9 +7140,22 @@
 (defn keep-indexed
   "Returns a lazy sequence of the non-nil results of (f index item). Note,
   this means false return values will be included.  f must be free of
-  side-effects."
+  side-effects.  Returns a stateful transducer when no collection is
+  provided."
   {:added "1.2"
    :static true}
+  ([f]
+     (fn [rf]
+       (let [iv (volatile! -1)]
+         (fn
+           ([] (rf))
+           ([result] (rf result))
+           ([result input]
+              (let [i (vswap! iv inc)
+                    v (f i input)]
+                (if (nil? v)
+                  result
+                  (rf result v))))))))
   ([f coll]
      (letfn [(keepi [idx coll]
                (lazy-seq
@@ -58,6 +58,40 @@
   (coll-reduce
    ([coll f] (seq-reduce coll f))
    ([coll f val] (seq-reduce coll f val)))
+
+  ;;primitive vectors reduce their leaf arrays without boxing into a seq
+  clojure.lang.PersistentLongVector
+  (coll-reduce
+   ([coll f] (.reduce coll f))
+   ([coll f val] (.reduce coll f val)))
+
+  clojure.lang.PersistentDoubleVector
+  (coll-reduce
+   ([coll f] (.reduce coll f))
+   ([coll f val] (.reduce coll f val)))
+
+  ;;long ranges step through their interval without seq cells
+  clojure.lang.LongRange
+  (coll-reduce
+   ([coll f] (.reduce coll f))
+   ([coll f val] (.reduce coll f val)))
+
+  ;;string seqs index into their CharSequence
+  clojure.lang.StringSeq
+  (coll-reduce
+   ([coll f] (.reduce coll f))
+   ([coll f val] (.reduce coll f val)))
+
+  ;;queues reduce their front seq then their rear vector's arrays
+  clojure.lang.PersistentQueue
+  (coll-reduce
+   ([coll f] (.reduce coll f))
+   ([coll f val] (.reduce coll f val)))
+
+  clojure.lang.PersistentDeque
+  (coll-reduce
+   ([coll f] (.reduce coll f))
+   ([coll f val] (.reduce coll f val)))
   
   Iterable
   (coll-reduce
@@ -107,15 +141,7 @@
   clojure.lang.StringSeq
   (internal-reduce
    [str-seq f val]
-   (let [s (.s str-seq)]
-     (loop [i (.i str-seq)
-            val val]
-       (if (< i (.length s))
-         (let [ret (f val (.charAt s i))]
-                (if (reduced? ret)
-                  @ret
-                  (recur (inc i) ret)))
-         val))))
+   (.reduce str-seq f val))
   
   clojure.lang.ArraySeq
   (internal-reduce
@@ -13,7 +13,7 @@
       dependency info."
       :author "Rich Hickey"}
   clojure.core.reducers
-  (:refer-clojure :exclude [reduce map mapcat filter remove take take-while drop flatten])
+  (:refer-clojure :exclude [reduce map mapcat filter remove take take-while drop flatten cat])
   (:require [clojure.walk :as walk]))
 
 (alias 'core 'clojure.core)
@@ -21,6 +21,11 @@
 
 ;;;;;;;;;;;;;; some fj stuff ;;;;;;;;;;
 
+(def ^:dynamic *fold-pool*
+  "When bound to a ForkJoinPool, fold runs its tasks in that pool
+  instead of the shared default pool."
+  nil)
+
 (defmacro ^:private compile-if
   "Evaluate `exp` and if it returns logical true and doesn't error, expand to
   `then`.  Else expand to `else`.
@@ -46,7 +51,8 @@
    (defn- fjinvoke [f]
      (if (java.util.concurrent.ForkJoinTask/inForkJoinPool)
        (f)
-       (.invoke ^java.util.concurrent.ForkJoinPool @pool ^java.util.concurrent.ForkJoinTask (fjtask f))))
+       (let [^java.util.concurrent.ForkJoinPool p (or *fold-pool* @pool)]
+         (.invoke p ^java.util.concurrent.ForkJoinTask (fjtask f)))))
 
    (defn- fjfork [task] (.fork ^java.util.concurrent.ForkJoinTask task))
 
@@ -61,7 +67,8 @@
    (defn- fjinvoke [f]
      (if (jsr166y.ForkJoinTask/inForkJoinPool)
        (f)
-       (.invoke ^jsr166y.ForkJoinPool @pool ^jsr166y.ForkJoinTask (fjtask f))))
+       (let [^jsr166y.ForkJoinPool p (or *fold-pool* @pool)]
+         (.invoke p ^jsr166y.ForkJoinTask (fjtask f)))))
 
    (defn- fjfork [task] (.fork ^jsr166y.ForkJoinTask task))
 
@@ -90,7 +97,8 @@
   reducef). combinef must be associative, and, when called with no
   arguments, (combinef) must produce its identity element. These
   operations may be performed in parallel, but the results will
-  preserve order."
+  preserve order. Bind *fold-pool* to run the fold in a particular
+  ForkJoinPool."
   {:added "1.5"}
   ([reducef coll] (fold reducef reducef coll))
   ([combinef reducef coll] (fold 512 combinef reducef coll))
@@ -361,7 +369,45 @@
   [v n combinef reducef]
   (foldvec v n combinef reducef))
 
+ ;;splits on leaf boundaries and reduces leaf arrays directly
+ clojure.lang.PersistentVector
+ (coll-fold
+  [v n combinef reducef]
+  (.fold v n combinef reducef fjinvoke fjtask fjfork fjjoin))
+
+ clojure.lang.APersistentVector$SubVector
+ (coll-fold
+  [v n combinef reducef]
+  (if (instance? clojure.lang.PersistentVector (.v v))
+    (.fold v n combinef reducef fjinvoke fjtask fjfork fjjoin)
+    (foldvec v n combinef reducef)))
+
  clojure.lang.PersistentHashMap
  (coll-fold
   [m n combinef reducef]
-  (.fold m n combinef reducef fjinvoke fjtask fjfork fjjoin)))
+  (.fold m n combinef reducef fjinvoke fjtask fjfork fjjoin))
+
+ ;;halves the interval, no seq is realized
+ clojure.lang.LongRange
+ (coll-fold
+  [r n combinef reducef]
+  (.fold r n combinef reducef fjinvoke fjtask fjfork fjjoin))
+
+ ;;halves the array range
+ clojure.lang.ArraySeq
+ (coll-fold
+  [s n combinef reducef]
+  (.fold s n combinef reducef fjinvoke fjtask fjfork fjjoin)))
+
+(defmacro ^:private emit-array-seq-folds
+  [& syms]
+  `(extend-protocol CollFold
+     ~@(clojure.core/mapcat
+        (fn [s]
+          [(symbol (str "clojure.lang.ArraySeq$ArraySeq_" s))
+           '(coll-fold
+             [s n combinef reducef]
+             (.fold s n combinef reducef fjinvoke fjtask fjfork fjjoin))])
+        syms)))
+
+(emit-array-seq-folds int long float double byte char short boolean)
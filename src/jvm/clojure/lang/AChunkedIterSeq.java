@@ -0,0 +1,78 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+/*
+ Realizes a one-pass source CHUNK_SIZE elements at a time. The seqs over one
+ chunk share its array and the State caching the seq of the following chunk, so
+ only moving past a chunk synchronizes. Subclasses read their source.
+ */
+public abstract class AChunkedIterSeq extends ASeq implements IChunkedSeq{
+static final int CHUNK_SIZE = 32;
+
+final Object[] array;
+final int i;
+final int end;
+final State state;
+
+static class State{
+	volatile Object _rest = this;
+}
+
+AChunkedIterSeq(IPersistentMap meta, Object[] array, int i, int end, State state){
+	super(meta);
+	this.array = array;
+	this.i = i;
+	this.end = end;
+	this.state = state;
+}
+
+//a seq of this class over array[i..end)
+abstract AChunkedIterSeq make(IPersistentMap meta, Object[] array, int i, int end, State state);
+
+//the seq of the source's next chunk, null if it is exhausted
+abstract AChunkedIterSeq nextChunk();
+
+public Object first(){
+	return array[i];
+}
+
+public ISeq next(){
+	if(i + 1 < end)
+		return make(null, array, i + 1, end, state);
+	return chunkedNext();
+}
+
+public IChunk chunkedFirst(){
+	return new ArrayChunk(array, i, end);
+}
+
+public ISeq chunkedNext(){
+	if(state._rest == state)
+		synchronized(state)
+			{
+			if(state._rest == state)
+				state._rest = nextChunk();
+			}
+	return (ISeq) state._rest;
+}
+
+public ISeq chunkedMore(){
+	ISeq s = chunkedNext();
+	if(s == null)
+		return PersistentList.EMPTY;
+	return s;
+}
+
+public AChunkedIterSeq withMeta(IPersistentMap meta){
+	return make(meta, array, i, end, state);
+}
+}
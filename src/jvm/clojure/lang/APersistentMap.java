@@ -141,6 +141,12 @@ static public class KeySeq extends ASeq{
 		return new KeySeq(seq);
 	}
 
+	static public ISeq createFromMap(IPersistentMap map){
+		if(map instanceof IMapIterable)
+			return IterSeq.create(((IMapIterable) map).keyIterator());
+		return create(map.seq());
+	}
+
 	private KeySeq(ISeq seq){
 		this.seq = seq;
 	}
@@ -172,6 +178,12 @@ static public class ValSeq extends ASeq{
 		return new ValSeq(seq);
 	}
 
+	static public ISeq createFromMap(IPersistentMap map){
+		if(map instanceof IMapIterable)
+			return IterSeq.create(((IMapIterable) map).valIterator());
+		return create(map.seq());
+	}
+
 	private ValSeq(ISeq seq){
 		this.seq = seq;
 	}
@@ -194,6 +206,79 @@ static public class ValSeq extends ASeq{
 	}
 }
 
+/*
+ A chunked seq on the key or val iterator of an IMapIterable map, which reads
+ the map's nodes without making entries. As the map can't change it serializes,
+ as a realized seq.
+ */
+static final class IterSeq extends IteratorSeq{
+	static public IterSeq create(Iterator iter){
+		if(!iter.hasNext())
+			return null;
+		Object[] array = new Object[CHUNK_SIZE];
+		return new IterSeq(null, iter, array, 0, fill(iter, array), new State());
+	}
+
+	IterSeq(IPersistentMap meta, Iterator iter, Object[] array, int i, int end, State state){
+		super(meta, iter, array, i, end, state);
+	}
+
+	AChunkedIterSeq make(IPersistentMap meta, Object[] array, int i, int end, State state){
+		return new IterSeq(meta, iter, array, i, end, state);
+	}
+
+	AChunkedIterSeq nextChunk(){
+		return create(iter);
+	}
+
+	private Object writeReplace(){
+		ISeq ret = PersistentVector.create((ISeq) this).seq();
+		return meta() != null ? ((IObj) ret).withMeta(meta()) : ret;
+	}
+}
+
+/*
+ A persistent set view of the keys of a map, which it shares. Disjoining a key
+ removes it from the map, and conjoining one adds it, mapped to itself.
+ */
+static public class KeySet extends APersistentSet implements IObj{
+	final IPersistentMap _meta;
+
+	KeySet(IPersistentMap meta, IPersistentMap map){
+		super(map);
+		this._meta = meta;
+	}
+
+	public Object get(Object key){
+		IMapEntry e = impl.entryAt(key);
+		return e != null ? e.key() : null;
+	}
+
+	public IPersistentSet disjoin(Object key){
+		if(contains(key))
+			return new KeySet(meta(), impl.without(key));
+		return this;
+	}
+
+	public IPersistentSet cons(Object o){
+		if(contains(o))
+			return this;
+		return new KeySet(meta(), impl.assoc(o, o));
+	}
+
+	public IPersistentCollection empty(){
+		return new KeySet(meta(), (IPersistentMap) impl.empty());
+	}
+
+	public KeySet withMeta(IPersistentMap meta){
+		return new KeySet(meta, impl);
+	}
+
+	public IPersistentMap meta(){
+		return _meta;
+	}
+}
+
 
 public Object invoke(Object arg1) {
 	return valAt(arg1);
@@ -250,9 +335,14 @@ public boolean isEmpty(){
 }
 
 public Set keySet(){
+	if(this instanceof IMapIterable)
+		return new KeySet(null, this);
 	return new AbstractSet(){
 
 		public Iterator iterator(){
+			if(APersistentMap.this instanceof IMapIterable)
+				return ((IMapIterable) APersistentMap.this).keyIterator();
+
 			final Iterator mi = APersistentMap.this.iterator();
 
 			return new Iterator(){
@@ -303,6 +393,9 @@ public Collection values(){
 	return new AbstractCollection(){
 
 		public Iterator iterator(){
+			if(APersistentMap.this instanceof IMapIterable)
+				return ((IMapIterable) APersistentMap.this).valIterator();
+
 			final Iterator mi = APersistentMap.this.iterator();
 
 			return new Iterator(){
@@ -170,6 +170,8 @@ public boolean isEmpty(){
 }
 
 public Iterator iterator(){
+	if(impl instanceof IMapIterable)
+		return ((IMapIterable) impl).keyIterator();
 	return new SeqIterator(seq());
 }
 
@@ -567,6 +567,22 @@ public static class SubVector extends APersistentVector implements IObj{
 		return super.iterator();
 	}
 
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		if(v instanceof PersistentVector)
+			return ((PersistentVector) v).foldRange(start, end, n, combinef, reducef,
+			                                        fjinvoke, fjtask, fjfork, fjjoin);
+		//no trie to split, single reduce
+		Object ret = combinef.invoke();
+		for(Iterator it = iterator(); it.hasNext();)
+			{
+			ret = reducef.invoke(ret, it.next());
+			if(RT.isReduced(ret))
+				return ((IDeref) ret).deref();
+			}
+		return ret;
+	}
+
 	public Object nth(int i){
 		if((start + i >= end) || (i < 0))
 			throw new IndexOutOfBoundsException();
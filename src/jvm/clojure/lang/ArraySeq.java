@@ -13,8 +13,11 @@
 package clojure.lang;
 
 import java.lang.reflect.Array;
+import java.util.concurrent.Callable;
+
+public class ArraySeq extends ASeq implements IndexedSeq, IReduce, IChunkedSeq{
+static final int CHUNK_SIZE = 32;
 
-public class ArraySeq extends ASeq implements IndexedSeq, IReduce{
 public final Object[] array;
 final int i;
 //ISeq _rest;
@@ -90,6 +93,34 @@ public ArraySeq withMeta(IPersistentMap meta){
 	return new ArraySeq(meta, array, i);
 }
 
+public IChunk chunkedFirst(){
+	return new ArrayChunk(array, i, Math.min(array.length, i + CHUNK_SIZE));
+}
+
+public ISeq chunkedNext(){
+	if(i + CHUNK_SIZE < array.length)
+		return new ArraySeq(array, i + CHUNK_SIZE);
+	return null;
+}
+
+public ISeq chunkedMore(){
+	ISeq s = chunkedNext();
+	if(s == null)
+		return PersistentList.EMPTY;
+	return s;
+}
+
+public Object fold(long n, IFn combinef, IFn reducef,
+                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+	final Object[] array = this.array;
+	Elements a = new Elements(){
+		public Object at(int x){
+			return array[x];
+		}
+	};
+	return fold(a, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+}
+
 public Object reduce(IFn f) {
 	if(array != null) {
 		Object ret = array[i];
@@ -130,9 +161,95 @@ public int lastIndexOf(Object o) {
 	return -1;
 }
 
+//boxed elements by index, for the chunks and folds shared by the array seqs, StringSeq and LongRange
+interface Elements{
+	Object at(int x);
+}
+
+static Object reduceRange(Elements a, int start, int end, IFn f, Object init){
+	for(int x = start; x < end; x++)
+		{
+		init = f.invoke(init, a.at(x));
+		if(RT.isReduced(init))
+			return ((IDeref) init).deref();
+		}
+	return init;
+}
+
+static Object fold(final Elements a, final int start, final int end, final long n, final IFn combinef,
+                   final IFn reducef, IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(end - start <= n)
+		return reduceRange(a, start, end, reducef, combinef.invoke());
+	return fjinvoke.invoke(new Callable(){
+		public Object call() throws Exception{
+			return doFold(a, start, end, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	});
+}
+
+static Object doFold(final Elements a, int start, final int end, final long n, final IFn combinef,
+                     final IFn reducef, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(end - start <= n)
+		return reduceRange(a, start, end, reducef, combinef.invoke());
+	final int mid = start + (end - start) / 2;
+	Object forked = fjfork.invoke(fjtask.invoke(new Callable(){
+		public Object call() throws Exception{
+			return doFold(a, mid, end, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	}));
+	return combinef.invoke(doFold(a, start, mid, n, combinef, reducef, fjtask, fjfork, fjjoin),
+	                       fjjoin.invoke(forked));
+}
+
+//a chunk of Elements, boxing them as they are used
+static final class Chunk implements IChunk{
+	final Elements a;
+	final int off;
+	final int end;
+
+	Chunk(Elements a, int off, int end){
+		this.a = a;
+		this.off = off;
+		this.end = end;
+	}
+
+	public Object nth(int i){
+		if(i >= 0 && i < end - off)
+			return a.at(off + i);
+		throw new IndexOutOfBoundsException();
+	}
+
+	public Object nth(int i, Object notFound){
+		if(i >= 0 && i < end - off)
+			return a.at(off + i);
+		return notFound;
+	}
+
+	public int count(){
+		return end - off;
+	}
+
+	public IChunk dropFirst(){
+		if(off == end)
+			throw new IllegalStateException("dropFirst of empty chunk");
+		return new Chunk(a, off + 1, end);
+	}
+
+	//leaves reduced values for the chunked seq reduction to deref
+	public Object reduce(IFn f, Object init){
+		for(int x = off; x < end; x++)
+			{
+			init = f.invoke(init, a.at(x));
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+}
+
 //////////////////////////////////// specialized primitive versions ///////////////////////////////
 
-static public class ArraySeq_int extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_int extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final int[] array;
 	final int i;
 
@@ -164,6 +281,32 @@ static public class ArraySeq_int extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_int(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_int(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return array[x];
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -200,7 +343,7 @@ static public class ArraySeq_int extends ASeq implements IndexedSeq, IReduce{
 }
 
 
-static public class ArraySeq_float extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_float extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final float[] array;
 	final int i;
 
@@ -232,6 +375,32 @@ static public class ArraySeq_float extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_float(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_float(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return Numbers.num(array[x]);
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = Numbers.num(array[i]);
 		for(int x = i + 1; x < array.length; x++)
@@ -265,7 +434,7 @@ static public class ArraySeq_float extends ASeq implements IndexedSeq, IReduce{
 	}
 }
 
-static public class ArraySeq_double extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_double extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final double[] array;
 	final int i;
 
@@ -297,6 +466,32 @@ static public class ArraySeq_double extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_double(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_double(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return array[x];
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -332,7 +527,7 @@ static public class ArraySeq_double extends ASeq implements IndexedSeq, IReduce{
 	}
 }
 
-static public class ArraySeq_long extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_long extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final long[] array;
 	final int i;
 
@@ -364,6 +559,32 @@ static public class ArraySeq_long extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_long(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_long(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return Numbers.num(array[x]);
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = Numbers.num(array[i]);
 		for(int x = i + 1; x < array.length; x++)
@@ -399,7 +620,7 @@ static public class ArraySeq_long extends ASeq implements IndexedSeq, IReduce{
 	}
 }
 
-static public class ArraySeq_byte extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_byte extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final byte[] array;
 	final int i;
 
@@ -431,6 +652,32 @@ static public class ArraySeq_byte extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_byte(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_byte(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return array[x];
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -474,7 +721,7 @@ static public class ArraySeq_byte extends ASeq implements IndexedSeq, IReduce{
 	}
 }
 
-static public class ArraySeq_char extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_char extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final char[] array;
 	final int i;
 
@@ -506,6 +753,32 @@ static public class ArraySeq_char extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_char(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_char(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return array[x];
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -549,7 +822,7 @@ static public class ArraySeq_char extends ASeq implements IndexedSeq, IReduce{
 	}
 }
 
-static public class ArraySeq_short extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_short extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final short[] array;
 	final int i;
 
@@ -581,6 +854,32 @@ static public class ArraySeq_short extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_short(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_short(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return array[x];
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -624,7 +923,7 @@ static public class ArraySeq_short extends ASeq implements IndexedSeq, IReduce{
 	}
 }
 
-static public class ArraySeq_boolean extends ASeq implements IndexedSeq, IReduce{
+static public class ArraySeq_boolean extends ASeq implements IndexedSeq, IReduce, IChunkedSeq, Elements{
 	public final boolean[] array;
 	final int i;
 
@@ -656,6 +955,32 @@ static public class ArraySeq_boolean extends ASeq implements IndexedSeq, IReduce
 		return new ArraySeq_boolean(meta, array, i);
 	}
 
+	public IChunk chunkedFirst(){
+		return new Chunk(this, i, Math.min(array.length, i + CHUNK_SIZE));
+	}
+
+	public ISeq chunkedNext(){
+		if(i + CHUNK_SIZE < array.length)
+			return new ArraySeq_boolean(meta(), array, i + CHUNK_SIZE);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object at(int x){
+		return array[x];
+	}
+
+	public Object fold(long n, IFn combinef, IFn reducef,
+	                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return ArraySeq.fold(this, i, array.length, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -16,63 +16,36 @@ import java.io.IOException;
 import java.io.NotSerializableException;
 import java.util.Enumeration;
 
-public class EnumerationSeq extends ASeq{
+//realizes the enumeration a chunk at a time, see AChunkedIterSeq
+public class EnumerationSeq extends AChunkedIterSeq{
 final Enumeration iter;
-final State state;
-
-    static class State{
-	volatile Object val;
-	volatile Object _rest;
-}
 
 public static EnumerationSeq create(Enumeration iter){
-	if(iter.hasMoreElements())
-		return new EnumerationSeq(iter);
-	return null;
-}
-
-EnumerationSeq(Enumeration iter){
-	this.iter = iter;
-	state = new State();
-	this.state.val = state;
-	this.state._rest = state;
-}
-
-EnumerationSeq(IPersistentMap meta, Enumeration iter, State state){
-	super(meta);
+	if(!iter.hasMoreElements())
+		return null;
+	Object[] array = new Object[CHUNK_SIZE];
+	int n = 0;
+	do
+		{
+		array[n++] = iter.nextElement();
+		} while(n < CHUNK_SIZE && iter.hasMoreElements());
+	return new EnumerationSeq(null, iter, array, 0, n, new State());
+}
+
+EnumerationSeq(IPersistentMap meta, Enumeration iter, Object[] array, int i, int end, State state){
+	super(meta, array, i, end, state);
 	this.iter = iter;
-	this.state = state;
 }
 
-public Object first(){
-	if(state.val == state)
-		synchronized(state)
-			{
-			if(state.val == state)
-				state.val = iter.nextElement();
-			}
-	return state.val;
+AChunkedIterSeq make(IPersistentMap meta, Object[] array, int i, int end, State state){
+	return new EnumerationSeq(meta, iter, array, i, end, state);
 }
 
-public ISeq next(){
-	if(state._rest == state)
-		synchronized(state)
-			{
-			if(state._rest == state)
-				{
-				first();
-				state._rest = create(iter);
-				}
-			}
-	return (ISeq) state._rest;
-}
-
-public EnumerationSeq withMeta(IPersistentMap meta){
-	return new EnumerationSeq(meta, iter, state);
+AChunkedIterSeq nextChunk(){
+	return create(iter);
 }
 
 private void writeObject (java.io.ObjectOutputStream out) throws IOException {
     throw new NotSerializableException(getClass().getName());
 }
-
 }
@@ -14,59 +14,38 @@ import java.io.IOException;
 import java.io.NotSerializableException;
 import java.util.Iterator;
 
-public class IteratorSeq extends ASeq{
+//realizes the iterator a chunk at a time, see AChunkedIterSeq
+public class IteratorSeq extends AChunkedIterSeq{
 final Iterator iter;
-final State state;
-
-    static class State{
-	volatile Object val;
-	volatile Object _rest;
-}
 
 public static IteratorSeq create(Iterator iter){
-	if(iter.hasNext())
-		return new IteratorSeq(iter);
-	return null;
+	if(!iter.hasNext())
+		return null;
+	Object[] array = new Object[CHUNK_SIZE];
+	return new IteratorSeq(null, iter, array, 0, fill(iter, array), new State());
 }
 
-IteratorSeq(Iterator iter){
-	this.iter = iter;
-	state = new State();
-	this.state.val = state;
-	this.state._rest = state;
+//fills array from a non-empty iter, returning the count
+static int fill(Iterator iter, Object[] array){
+	int n = 0;
+	do
+		{
+		array[n++] = iter.next();
+		} while(n < array.length && iter.hasNext());
+	return n;
 }
 
-IteratorSeq(IPersistentMap meta, Iterator iter, State state){
-	super(meta);
+IteratorSeq(IPersistentMap meta, Iterator iter, Object[] array, int i, int end, State state){
+	super(meta, array, i, end, state);
 	this.iter = iter;
-	this.state = state;
-}
-
-public Object first(){
-	if(state.val == state)
-		synchronized(state)
-			{
-			if(state.val == state)
-				state.val = iter.next();
-			}
-	return state.val;
 }
 
-public ISeq next(){
-	if(state._rest == state)
-		synchronized(state)
-			{
-			if(state._rest == state)
-				{
-				first();
-				state._rest = create(iter);
-				}
-			}
-	return (ISeq) state._rest;
+AChunkedIterSeq make(IPersistentMap meta, Object[] array, int i, int end, State state){
+	return new IteratorSeq(meta, iter, array, i, end, state);
 }
 
-public IteratorSeq withMeta(IPersistentMap meta){
-	return new IteratorSeq(meta, iter, state);
+AChunkedIterSeq nextChunk(){
+	return create(iter);
 }
 
 private void writeObject (java.io.ObjectOutputStream out) throws IOException {
@@ -13,12 +13,37 @@
 package clojure.lang;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 public final class LazySeq extends Obj implements ISeq, Sequential, List, IPending, IHashEq{
 
-private IFn fn;
-private Object sv;
+/*
+ Realization is guarded by owner rather than a monitor: null when free, the
+ realizing Thread, or the newest Waiter once other threads queue behind it.
+ fn and sv are volatile so a realized seq is read without any locking, and s
+ is always written before sv is cleared.
+ */
+private volatile IFn fn;
+private volatile Object sv;
 private ISeq s;
+private transient volatile Object owner;
+
+static final AtomicReferenceFieldUpdater<LazySeq, Object> OWNER =
+		AtomicReferenceFieldUpdater.newUpdater(LazySeq.class, Object.class, "owner");
+
+static final class Waiter{
+	final Thread owner;
+	final Thread thread;
+	final Waiter next;
+	volatile boolean released;
+
+	Waiter(Thread owner, Thread thread, Waiter next){
+		this.owner = owner;
+		this.thread = thread;
+		this.next = next;
+	}
+}
 
 public LazySeq(IFn fn){
 	this.fn = fn;
@@ -34,28 +59,97 @@ public Obj withMeta(IPersistentMap meta){
 	return new LazySeq(meta, seq());
 }
 
-final synchronized Object sval(){
+//returns false when the current thread already holds it
+private boolean lock(){
+	Thread t = Thread.currentThread();
+	if(OWNER.compareAndSet(this, null, t))
+		return true;
+	for(;;)
+		{
+		Object o = owner;
+		if(o == null)
+			{
+			if(OWNER.compareAndSet(this, null, t))
+				return true;
+			continue;
+			}
+		Waiter top = o instanceof Waiter ? (Waiter) o : null;
+		Thread holder = top != null ? top.owner : (Thread) o;
+		if(holder == t)
+			return false;
+		Waiter w = new Waiter(holder, t, top);
+		if(OWNER.compareAndSet(this, o, w))
+			{
+			//like a monitor, waiting is not interruptible
+			boolean interrupted = false;
+			while(!w.released)
+				{
+				LockSupport.park(this);
+				if(Thread.interrupted())
+					interrupted = true;
+				}
+			if(interrupted)
+				t.interrupt();
+			}
+		}
+}
+
+private void unlock(){
+	Object o = OWNER.getAndSet(this, null);
+	for(Waiter w = o instanceof Waiter ? (Waiter) o : null; w != null; w = w.next)
+		{
+		w.released = true;
+		LockSupport.unpark(w.thread);
+		}
+}
+
+final Object sval(){
 	if(fn != null)
 		{
-                sv = fn.invoke();
-                fn = null;
+		boolean locked = lock();
+		try
+			{
+			if(fn != null)
+				{
+				sv = fn.invoke();
+				fn = null;
+				}
+			}
+		finally
+			{
+			if(locked)
+				unlock();
+			}
 		}
-	if(sv != null)
-		return sv;
+	Object v = sv;
+	if(v != null)
+		return v;
 	return s;
 }
 
-final synchronized public ISeq seq(){
-	sval();
-	if(sv != null)
+final public ISeq seq(){
+	if(fn != null || sv != null)
 		{
-		Object ls = sv;
-		sv = null;
-		while(ls instanceof LazySeq)
+		boolean locked = lock();
+		try
+			{
+			sval();
+			Object ls = sv;
+			if(ls != null)
+				{
+				while(ls instanceof LazySeq)
+					{
+					ls = ((LazySeq)ls).sval();
+					}
+				s = RT.seq(ls);
+				sv = null;
+				}
+			}
+		finally
 			{
-			ls = ((LazySeq)ls).sval();
+			if(locked)
+				unlock();
 			}
-		s = RT.seq(ls);
 		}
 	return s;
 }
@@ -108,6 +202,12 @@ public int hashCode(){
 }
 
 public int hasheq(){
+	ISeq s = seq();
+	if(s == null)
+		return PersistentList.EMPTY.hasheq();
+	//realized seqs cache their hash
+	if(s instanceof IHashEq)
+		return ((IHashEq) s).hasheq();
 	return Murmur3.hashOrdered(this);
 }
 
@@ -236,7 +336,7 @@ public boolean addAll(int index, Collection c){
 }
 
 
-synchronized public boolean isRealized(){
+public boolean isRealized(){
 	return fn == null;
 }
 }
@@ -13,11 +13,14 @@
 package clojure.lang;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
 
 @SuppressWarnings({"SynchronizeOnNonFinalField"})
 public class LockingTransaction{
@@ -35,6 +38,97 @@ static final int COMMITTED = 4;
 
 final static ThreadLocal<LockingTransaction> transaction = new ThreadLocal<LockingTransaction>();
 
+//outermost transactions from start to finish, whose read points commits keep history for
+final static Set<LockingTransaction> running =
+		Collections.newSetFromMap(new ConcurrentHashMap<LockingTransaction, Boolean>());
+
+/*
+ STM counters, summed by getStats. Each thread counts into one of STRIPES arrays,
+ so counting once per transaction doesn't contend. The slots are the retry
+ causes (Ref.FAULTS etc.), then COMMITS, RETRIES, FAILURES and BARGED, then the
+ histograms of retries per commit and of commit latency.
+ */
+static final int STRIPES = 16;
+static final int COMMITS = Ref.STATS;
+static final int RETRIES = COMMITS + 1;
+static final int FAILURES = COMMITS + 2;
+static final int BARGED = COMMITS + 3;
+static final int RETRY_BUCKETS = COMMITS + 4;
+static final int RETRY_BUCKET_COUNT = 16;
+static final int LATENCY_BUCKETS = RETRY_BUCKETS + RETRY_BUCKET_COUNT;
+static final int LATENCY_BUCKET_COUNT = 32;
+static final int STAT_SLOTS = LATENCY_BUCKETS + LATENCY_BUCKET_COUNT;
+
+final static AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+static
+	{
+	for(int i = 0; i < STRIPES; i++)
+		stripes[i] = new AtomicLongArray(STAT_SLOTS);
+	}
+
+static AtomicLongArray stats(){
+	return stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+}
+
+//log2 buckets: 0, 1, 2-3, 4-7 ..., the last also taking anything larger
+static int bucket(long x, int count){
+	return Math.min(64 - Long.numberOfLeadingZeros(x), count - 1);
+}
+
+static final Keyword COMMITS_KEY = Keyword.intern(null, "commits");
+static final Keyword RETRIES_KEY = Keyword.intern(null, "retries");
+static final Keyword FAILURES_KEY = Keyword.intern(null, "failures");
+static final Keyword BARGED_KEY = Keyword.intern(null, "barged");
+static final Keyword RETRY_HISTOGRAM_KEY = Keyword.intern(null, "retry-histogram");
+static final Keyword LATENCY_HISTOGRAM_KEY = Keyword.intern(null, "commit-latency-histogram");
+
+/**
+ * Returns a map of STM counts since startup:
+ * <p/>
+ * :commits, :retries - transaction attempts that committed, or retried
+ * <p/>
+ * :failures - transactions that gave up after RETRY_LIMIT retries
+ * <p/>
+ * :barged - retries of transactions killed by another's barge
+ * <p/>
+ * :faults, :conflicts, :lock-timeouts, :barges - totals of the Ref counts,
+ * see Ref.getStats
+ * <p/>
+ * :retry-histogram - a vector of counts of commits by the retries they took,
+ * bucketed 0, 1, 2-3, 4-7 and so on
+ * <p/>
+ * :commit-latency-histogram - counts of commits by the microseconds from the
+ * first attempt to commit, bucketed the same way
+ * <p/>
+ * Counts from concurrent transactions may or may not be included.
+ */
+static public IPersistentMap getStats(){
+	long[] sum = new long[STAT_SLOTS];
+	for(AtomicLongArray s : stripes)
+		{
+		for(int i = 0; i < STAT_SLOTS; i++)
+			sum[i] += s.get(i);
+		}
+	ITransientMap ret = PersistentArrayMap.EMPTY.asTransient();
+	for(int i = 0; i < Ref.STATS; i++)
+		ret = ret.assoc(Ref.STAT_KEYS[i], sum[i]);
+	return ret.assoc(COMMITS_KEY, sum[COMMITS])
+			.assoc(RETRIES_KEY, sum[RETRIES])
+			.assoc(FAILURES_KEY, sum[FAILURES])
+			.assoc(BARGED_KEY, sum[BARGED])
+			.assoc(RETRY_HISTOGRAM_KEY, histogram(sum, RETRY_BUCKETS, RETRY_BUCKET_COUNT))
+			.assoc(LATENCY_HISTOGRAM_KEY, histogram(sum, LATENCY_BUCKETS, LATENCY_BUCKET_COUNT))
+			.persistent();
+}
+
+static IPersistentVector histogram(long[] sum, int start, int count){
+	ITransientCollection ret = PersistentVector.EMPTY.asTransient();
+	for(int i = start; i < start + count; i++)
+		ret = ret.conj(sum[i]);
+	return (IPersistentVector) ret.persistent();
+}
+
 
 static class RetryEx extends Error{
 }
@@ -45,19 +139,185 @@ static class AbortException extends Exception{
 public static class Info{
 	final AtomicInteger status;
 	final long startPoint;
+	final long startTime;
 	final CountDownLatch latch;
+	//refs read or written, over all attempts so far, read racily by other transactions
+	int karma;
 
 
 	public Info(int status, long startPoint){
+		this(status, startPoint, System.nanoTime(), 0);
+	}
+
+	Info(int status, long startPoint, long startTime, int karma){
 		this.status = new AtomicInteger(status);
 		this.startPoint = startPoint;
+		this.startTime = startTime;
 		this.latch = new CountDownLatch(1);
+		this.karma = karma;
 	}
 
 	public boolean running(){
 		int s = status.get();
 		return s == RUNNING || s == COMMITTING;
 	}
+
+	//lower for older transactions
+	public long getStartPoint(){
+		return startPoint;
+	}
+
+	//System.nanoTime() at the first attempt
+	public long getStartTime(){
+		return startTime;
+	}
+
+	public int getKarma(){
+		return karma;
+	}
+}
+
+/**
+ * Decides how a transaction proceeds when another's write gets in its way.
+ * Called on the thread of the transaction self.
+ */
+public interface ContentionManager{
+	//whether self should kill other, which is running and has written a ref self needs
+	boolean barge(Info self, Info other);
+
+	//how long self should wait for a write lock, or for a writer it didn't barge, before retrying
+	long waitNanos(Info self);
+
+	//called before each retry, retries being 1 on the first, and may sleep
+	void backoff(int retries);
+}
+
+/**
+ * Older transactions barge younger ones, once they have run for BARGE_WAIT_NANOS.
+ */
+public static final ContentionManager AGED = new ContentionManager(){
+	public boolean barge(Info self, Info other){
+		return System.nanoTime() - self.startTime > BARGE_WAIT_NANOS && self.startPoint < other.startPoint;
+	}
+
+	public long waitNanos(Info self){
+		return TimeUnit.MILLISECONDS.toNanos(LOCK_WAIT_MSECS);
+	}
+
+	public void backoff(int retries){
+	}
+};
+
+/**
+ * Older transactions barge younger ones right away.
+ */
+public static final ContentionManager OLDEST_FIRST = new ContentionManager(){
+	public boolean barge(Info self, Info other){
+		return self.startPoint < other.startPoint;
+	}
+
+	public long waitNanos(Info self){
+		return TimeUnit.MILLISECONDS.toNanos(LOCK_WAIT_MSECS);
+	}
+
+	public void backoff(int retries){
+	}
+};
+
+/**
+ * Transactions that have read and written more refs, over all their attempts,
+ * barge those that have done less, the older winning ties. Aborted work
+ * counts, so a transaction that keeps losing gains priority.
+ */
+public static final ContentionManager KARMA = new ContentionManager(){
+	public boolean barge(Info self, Info other){
+		int k = self.karma;
+		int ok = other.karma;
+		return k > ok || (k == ok && self.startPoint < other.startPoint);
+	}
+
+	public long waitNanos(Info self){
+		return TimeUnit.MILLISECONDS.toNanos(LOCK_WAIT_MSECS);
+	}
+
+	public void backoff(int retries){
+	}
+};
+
+/**
+ * Barges like AGED, but waits at most maxNanos for a lock, and sleeps a random
+ * time before each retry of up to minNanos, doubling per retry to maxNanos,
+ * so that transactions retried together spread out.
+ */
+public static class Backoff implements ContentionManager{
+	final long minNanos;
+	final long maxNanos;
+
+	public Backoff(long minNanos, long maxNanos){
+		if(minNanos <= 0 || maxNanos < minNanos)
+			throw new IllegalArgumentException("Backoff needs 0 < minNanos <= maxNanos");
+		this.minNanos = minNanos;
+		this.maxNanos = maxNanos;
+	}
+
+	public boolean barge(Info self, Info other){
+		return AGED.barge(self, other);
+	}
+
+	public long waitNanos(Info self){
+		return maxNanos;
+	}
+
+	public void backoff(int retries){
+		long limit = minNanos;
+		for(int i = 1; i < retries && limit < maxNanos; i++)
+			limit <<= 1;
+		LockSupport.parkNanos((long) (Math.random() * Math.min(limit, maxNanos)));
+	}
+}
+
+public static final ContentionManager BACKOFF = new Backoff(100 * 1000, 10 * 1000000);
+
+static final Keyword CONTENTION_MANAGER_KEY = Keyword.intern(null, "contention-manager");
+static final Keyword READ_ONLY_KEY = Keyword.intern(null, "read-only");
+
+//shared by read-only transactions, which can't be barged, so never stop
+static final Info READ_ONLY_INFO = new Info(RUNNING, 0);
+
+static volatile ContentionManager contentionManager = AGED;
+
+/**
+ * Returns a ContentionManager, or one of :aged (the default), :oldest-first,
+ * :karma or :backoff for the managers here.
+ */
+static ContentionManager asContentionManager(Object cm){
+	if(cm instanceof ContentionManager)
+		return (ContentionManager) cm;
+	if(cm instanceof Keyword)
+		{
+		String name = ((Keyword) cm).getName();
+		if(name.equals("aged"))
+			return AGED;
+		if(name.equals("oldest-first"))
+			return OLDEST_FIRST;
+		if(name.equals("karma"))
+			return KARMA;
+		if(name.equals("backoff"))
+			return BACKOFF;
+		}
+	throw new IllegalArgumentException("Not a contention manager: " + cm);
+}
+
+static public ContentionManager getContentionManager(){
+	return contentionManager;
+}
+
+/**
+ * Sets the contention manager of transactions not given one by their sync
+ * flags, see asContentionManager.
+ */
+static public void setContentionManager(Object cm){
+	contentionManager = asContentionManager(cm);
 }
 
 static class CFn{
@@ -81,14 +341,37 @@ long getCommitPoint(){
 	return lastPoint.incrementAndGet();
 }
 
+/*
+ The oldest read point of the other running transactions. One registered but
+ yet to take its first read point has 0, so no history is dropped for it, and
+ one registering after this scan will read at a point after the caller's commit.
+ */
+long oldestReadPoint(){
+	long oldest = Long.MAX_VALUE;
+	for(LockingTransaction t : running)
+		{
+		if(t != this)
+			oldest = Math.min(oldest, t.readPoint);
+		}
+	return oldest;
+}
+
+//whether a transaction reading at oldest or later could read tv, a prior version
+static boolean readable(Ref.TVal tv, long oldest){
+	return oldest < tv.next.point;
+}
+
 void stop(int status){
-	if(info != null)
+	if(info == READ_ONLY_INFO)
+		info = null;
+	else if(info != null)
 		{
 		synchronized(info)
 			{
 			info.status.set(status);
 			info.latch.countDown();
 			}
+		karma = info.karma;
 		info = null;
 		vals.clear();
 		sets.clear();
@@ -99,27 +382,42 @@ void stop(int status){
 
 
 Info info;
-long readPoint;
+//volatile for commits reading it, see oldestReadPoint
+volatile long readPoint;
 long startPoint;
 long startTime;
+int karma;
+ContentionManager cm = contentionManager;
+boolean readOnly;
 final RetryEx retryex = new RetryEx();
 final ArrayList<Agent.Action> actions = new ArrayList<Agent.Action>();
-final HashMap<Ref, Object> vals = new HashMap<Ref, Object>();
-final HashSet<Ref> sets = new HashSet<Ref>();
-final TreeMap<Ref, ArrayList<CFn>> commutes = new TreeMap<Ref, ArrayList<CFn>>();
+//made by the first read-write run
+HashMap<Ref, Object> vals;
+HashSet<Ref> sets;
+TreeMap<Ref, ArrayList<CFn>> commutes;
 
-final HashSet<Ref> ensures = new HashSet<Ref>();   //all hold readLock
+HashSet<Ref> ensures;   //all hold readLock
 
 
+void count(Ref ref, int stat){
+	ref.stats.incrementAndGet(stat);
+	stats().incrementAndGet(stat);
+}
+
+RetryEx retry(Ref ref, int cause){
+	count(ref, cause);
+	return retryex;
+}
+
 void tryWriteLock(Ref ref){
 	try
 		{
-		if(!ref.lock.writeLock().tryLock(LOCK_WAIT_MSECS, TimeUnit.MILLISECONDS))
-			throw retryex;
+		if(!ref.lock.writeLock().tryLock(cm.waitNanos(info), TimeUnit.NANOSECONDS))
+			throw retry(ref, Ref.LOCK_TIMEOUTS);
 		}
 	catch(InterruptedException e)
 		{
-		throw retryex;
+		throw retry(ref, Ref.LOCK_TIMEOUTS);
 		}
 }
 
@@ -135,16 +433,17 @@ Object lock(Ref ref){
 		unlocked = false;
 
 		if(ref.tvals != null && ref.tvals.point > readPoint)
-			throw retryex;
+			throw retry(ref, Ref.CONFLICTS);
 		Info refinfo = ref.tinfo;
 
 		//write lock conflict
 		if(refinfo != null && refinfo != info && refinfo.running())
 			{
-			if(!barge(refinfo))
+			if(!barge(ref, refinfo))
 				{
 				ref.lock.writeLock().unlock();
 				unlocked = true;
+				count(ref, Ref.CONFLICTS);
 				return blockAndBail(refinfo);
 				}
 			}
@@ -159,11 +458,12 @@ Object lock(Ref ref){
 }
 
 private Object blockAndBail(Info refinfo){
+	long wait = cm.waitNanos(info);
 //stop prior to blocking
 	stop(RETRY);
 	try
 		{
-		refinfo.latch.await(LOCK_WAIT_MSECS, TimeUnit.MILLISECONDS);
+		refinfo.latch.await(wait, TimeUnit.NANOSECONDS);
 		}
 	catch(InterruptedException e)
 		{
@@ -185,19 +485,18 @@ void abort() throws AbortException{
 	throw new AbortException();
 }
 
-private boolean bargeTimeElapsed(){
-	return System.nanoTime() - startTime > BARGE_WAIT_NANOS;
-}
-
-private boolean barge(Info refinfo){
+private boolean barge(Ref ref, Info refinfo){
 	boolean barged = false;
-	//if this transaction is older
+	//if the contention manager favors this transaction
 	//  try to abort the other
-	if(bargeTimeElapsed() && startPoint < refinfo.startPoint)
+	if(cm.barge(info, refinfo))
 		{
         barged = refinfo.status.compareAndSet(RUNNING, KILLED);
         if(barged)
+            {
             refinfo.latch.countDown();
+            count(ref, Ref.BARGES);
+            }
 		}
 	return barged;
 }
@@ -221,20 +520,31 @@ static LockingTransaction getRunning(){
 }
 
 static public Object runInTransaction(Callable fn) throws Exception{
+	return runInTransaction(fn, null);
+}
+
+/**
+ * Runs fn in a transaction, or in the running one, which keeps its own flags.
+ * Flags may have :contention-manager, see asContentionManager, and :read-only,
+ * see runReadOnly.
+ */
+static public Object runInTransaction(Callable fn, IPersistentMap flags) throws Exception{
 	LockingTransaction t = transaction.get();
 	Object ret;
 	if(t == null) {
 		transaction.set(t = new LockingTransaction());
+		running.add(t);
 		try {
-			ret = t.run(fn);
+			ret = t.run(fn, flags);
 		} finally {
+			running.remove(t);
 			transaction.remove();
 		}
 	} else {
 		if(t.info != null) {
 			ret = fn.call();
 		} else {
-			ret = t.run(fn);
+			ret = t.run(fn, flags);
 		}
 	}
 
@@ -253,8 +563,20 @@ static class Notify{
 	}
 }
 
-Object run(Callable fn) throws Exception{
+Object run(Callable fn, IPersistentMap flags) throws Exception{
+	Object flagged = flags == null ? null : flags.valAt(CONTENTION_MANAGER_KEY);
+	cm = flagged == null ? contentionManager : asContentionManager(flagged);
+	if(flags != null && RT.booleanCast(flags.valAt(READ_ONLY_KEY)))
+		return runReadOnly(fn);
+	if(vals == null)
+		{
+		vals = new HashMap<Ref, Object>();
+		sets = new HashSet<Ref>();
+		commutes = new TreeMap<Ref, ArrayList<CFn>>();
+		ensures = new HashSet<Ref>();
+		}
 	boolean done = false;
+	int retries = 0;
 	Object ret = null;
 	ArrayList<Ref> locked = new ArrayList<Ref>();
 	ArrayList<Notify> notify = new ArrayList<Notify>();
@@ -263,13 +585,16 @@ Object run(Callable fn) throws Exception{
 		{
 		try
 			{
+			if(i > 0)
+				cm.backoff(i);
 			getReadPoint();
 			if(i == 0)
 				{
 				startPoint = readPoint;
 				startTime = System.nanoTime();
+				karma = 0;
 				}
-			info = new Info(RUNNING, startPoint);
+			info = new Info(RUNNING, startPoint, startTime, karma);
 			ret = fn.call();
 			//make sure no one has killed us before this point, and can't from now on
 			if(info.status.compareAndSet(RUNNING, COMMITTING))
@@ -285,13 +610,13 @@ Object run(Callable fn) throws Exception{
 					tryWriteLock(ref);
 					locked.add(ref);
 					if(wasEnsured && ref.tvals != null && ref.tvals.point > readPoint)
-						throw retryex;
+						throw retry(ref, Ref.CONFLICTS);
 
 					Info refinfo = ref.tinfo;
 					if(refinfo != null && refinfo != info && refinfo.running())
 						{
-						if(!barge(refinfo))
-							throw retryex;
+						if(!barge(ref, refinfo))
+							throw retry(ref, Ref.CONFLICTS);
 						}
 					Object val = ref.tvals == null ? null : ref.tvals.val;
 					vals.put(ref, val);
@@ -315,7 +640,14 @@ Object run(Callable fn) throws Exception{
 
 				//at this point, all values calced, all refs to be written locked
 				//no more client code to be called
-				long commitPoint = getCommitPoint();
+				//mark refs as changing before taking the point, so a reader with a later
+				//read point can't miss this commit by reading them without the lock
+				for(Ref ref : vals.keySet())
+					ref.stamp++;
+				//nothing to stamp if only reading
+				long commitPoint = vals.isEmpty() ? 0 : getCommitPoint();
+				//scanned for once some ref's history could shrink
+				long oldestRead = -1;
 				for(Map.Entry<Ref, Object> e : vals.entrySet())
 					{
 					Ref ref = e.getKey();
@@ -335,10 +667,24 @@ Object run(Callable fn) throws Exception{
 						}
 					else
 						{
-						ref.tvals = ref.tvals.next;
-						ref.tvals.val = newval;
-						ref.tvals.point = commitPoint;
+						//fill in the oldest version before it becomes the newest, as
+						//reads of the newest one take neither the lock nor the stamp
+						Ref.TVal tv = ref.tvals.next;
+						tv.val = newval;
+						tv.point = commitPoint;
+						ref.tvals = tv;
+						//no running transaction can read the oldest version, or it's over the limit
+						if(hcount > ref.minHistory && hcount <= ref.maxHistory && oldestRead < 0)
+							oldestRead = oldestReadPoint();
+						if(hcount > ref.maxHistory
+						   || (hcount > ref.minHistory && !readable(ref.tvals.next, oldestRead)))
+							{
+							Ref.TVal oldest = ref.tvals.next;
+							ref.tvals.next = oldest.next;
+							oldest.next.prior = ref.tvals;
+							}
 						}
+					ref.stamp++;
 					if(ref.getWatches().count() > 0)
 						notify.add(new Notify(ref, oldval, newval));
 					}
@@ -346,10 +692,17 @@ Object run(Callable fn) throws Exception{
 				done = true;
 				info.status.set(COMMITTED);
 				}
+			else //barged
+				throw retryex;
 			}
 		catch(RetryEx retry)
 			{
 			//eat this so we retry rather than fall out
+			retries++;
+			AtomicLongArray stats = stats();
+			stats.incrementAndGet(RETRIES);
+			if(info != null && info.status.get() == KILLED)
+				stats.incrementAndGet(BARGED);
 			}
 		finally
 			{
@@ -386,10 +739,75 @@ Object run(Callable fn) throws Exception{
 			}
 		}
 	if(!done)
-		throw Util.runtimeException("Transaction failed after reaching retry limit");
+		throw failed();
+	committed(retries);
 	return ret;
 }
 
+/*
+ Runs fn reading at a single read point, retrying at a later one only if a
+ ref's history doesn't reach back that far. Writes throw, ensure is implied,
+ and with nothing to commit no commit point is taken and no write bookkeeping
+ is made.
+ */
+Object runReadOnly(Callable fn) throws Exception{
+	readOnly = true;
+	try
+		{
+		for(int i = 0; i < RETRY_LIMIT; i++)
+			{
+			if(i > 0)
+				cm.backoff(i);
+			getReadPoint();
+			if(i == 0)
+				{
+				startPoint = readPoint;
+				startTime = System.nanoTime();
+				}
+			info = READ_ONLY_INFO;
+			Object ret;
+			try
+				{
+				ret = fn.call();
+				}
+			catch(RetryEx retry)
+				{
+				stats().incrementAndGet(RETRIES);
+				actions.clear();
+				continue;
+				}
+			finally
+				{
+				info = null;
+				}
+			committed(i);
+			for(Agent.Action action : actions)
+				{
+				Agent.dispatchAction(action);
+				}
+			return ret;
+			}
+		throw failed();
+		}
+	finally
+		{
+		readOnly = false;
+		actions.clear();
+		}
+}
+
+void committed(int retries){
+	AtomicLongArray stats = stats();
+	stats.incrementAndGet(COMMITS);
+	stats.incrementAndGet(RETRY_BUCKETS + bucket(retries, RETRY_BUCKET_COUNT));
+	stats.incrementAndGet(LATENCY_BUCKETS + bucket((System.nanoTime() - startTime) / 1000, LATENCY_BUCKET_COUNT));
+}
+
+RuntimeException failed(){
+	stats().incrementAndGet(FAILURES);
+	return Util.runtimeException("Transaction failed after reaching retry limit");
+}
+
 public void enqueue(Agent.Action action){
 	actions.add(action);
 }
@@ -397,37 +815,31 @@ public void enqueue(Agent.Action action){
 Object doGet(Ref ref){
 	if(!info.running())
 		throw retryex;
-	if(vals.containsKey(ref))
-		return vals.get(ref);
-	try
+	if(!readOnly)
 		{
-		ref.lock.readLock().lock();
-		if(ref.tvals == null)
-			throw new IllegalStateException(ref.toString() + " is unbound.");
-		Ref.TVal ver = ref.tvals;
-		do
-			{
-			if(ver.point <= readPoint)
-				return ver.val;
-			} while((ver = ver.prior) != ref.tvals);
-		}
-	finally
-		{
-		ref.lock.readLock().unlock();
+		if(vals.containsKey(ref))
+			return vals.get(ref);
+		info.karma++;
 		}
+	Object val = ref.valAsOf(readPoint);
+	if(val != Ref.NO_VERSION)
+		return val;
 	//no version of val precedes the read point
 	ref.faults.incrementAndGet();
-	throw retryex;
+	throw retry(ref, Ref.FAULTS);
 
 }
 
 Object doSet(Ref ref, Object val){
 	if(!info.running())
 		throw retryex;
+	if(readOnly)
+		throw new IllegalStateException("Can't set ref in read-only transaction");
 	if(commutes.containsKey(ref))
 		throw new IllegalStateException("Can't set after commute");
 	if(!sets.contains(ref))
 		{
+		info.karma++;
 		sets.add(ref);
 		lock(ref);
 		}
@@ -438,14 +850,18 @@ Object doSet(Ref ref, Object val){
 void doEnsure(Ref ref){
 	if(!info.running())
 		throw retryex;
+	//every read is from the one snapshot, and there are no writes to skew
+	if(readOnly)
+		return;
 	if(ensures.contains(ref))
 		return;
+	info.karma++;
 	ref.lock.readLock().lock();
 
 	//someone completed a write after our snapshot
 	if(ref.tvals != null && ref.tvals.point > readPoint) {
         ref.lock.readLock().unlock();
-        throw retryex;
+        throw retry(ref, Ref.CONFLICTS);
     }
 
 	Info refinfo = ref.tinfo;
@@ -457,6 +873,7 @@ void doEnsure(Ref ref){
 
 		if(refinfo != info) //not us, ensure is doomed
 			{
+			count(ref, Ref.CONFLICTS);
 			blockAndBail(refinfo); 
 			}
 		}
@@ -467,19 +884,13 @@ void doEnsure(Ref ref){
 Object doCommute(Ref ref, IFn fn, ISeq args) {
 	if(!info.running())
 		throw retryex;
+	if(readOnly)
+		throw new IllegalStateException("Can't commute ref in read-only transaction");
 	if(!vals.containsKey(ref))
 		{
-		Object val = null;
-		try
-			{
-			ref.lock.readLock().lock();
-			val = ref.tvals == null ? null : ref.tvals.val;
-			}
-		finally
-			{
-			ref.lock.readLock().unlock();
-			}
-		vals.put(ref, val);
+		info.karma++;
+		Ref.TVal tv = ref.tvals;
+		vals.put(ref, tv == null ? null : tv.val);
 		}
 	ArrayList<CFn> fns = commutes.get(ref);
 	if(fns == null)
@@ -0,0 +1,222 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+
+/**
+ * A finite range of longs, start + i * step for i below count.
+ * Chunked, and reduce, fold and iterator step through the interval directly.
+ */
+public class LongRange extends ASeq implements IChunkedSeq, IReduce, Counted, ArraySeq.Elements{
+
+static final int CHUNK_SIZE = 32;
+
+final long start;
+final long step;
+final int count;
+
+/**
+ * Returns the seq of longs from start (inclusive) to end (exclusive) by
+ * step, or null when the arguments aren't a finite, int counted range of
+ * longs that this class covers: start and step must be Longs, step not
+ * zero, and end a Long or an integral or finite Double in exact range.
+ */
+static public ISeq create(Object start, Object end, Object step){
+	if(!(start instanceof Long) || !(step instanceof Long))
+		return null;
+	long s = (Long) start;
+	long st = (Long) step;
+	if(st == 0)
+		return null;
+	long e;
+	if(end instanceof Long || end instanceof Integer || end instanceof Short || end instanceof Byte)
+		e = ((Number) end).longValue();
+	else if(end instanceof Double || end instanceof Float)
+		{
+		double d = ((Number) end).doubleValue();
+		//longs compared with a double are compared as doubles, exact only to 2^53
+		if(!(Math.abs(d) <= (1L << 53)))
+			return null;
+		e = (long) (st > 0 ? Math.ceil(d) : Math.floor(d));
+		}
+	else
+		return null;
+	if(st > 0 ? s >= e : s <= e)
+		return PersistentList.EMPTY;
+	long span = e - s;
+	if(((e ^ s) & (e ^ span)) < 0)
+		return null;
+	long cnt = span / st + (span % st != 0 ? 1 : 0);
+	if(cnt > Integer.MAX_VALUE)
+		return null;
+	return new LongRange(s, st, (int) cnt);
+}
+
+LongRange(long start, long step, int count){
+	this.start = start;
+	this.step = step;
+	this.count = count;
+}
+
+LongRange(IPersistentMap meta, long start, long step, int count){
+	super(meta);
+	this.start = start;
+	this.step = step;
+	this.count = count;
+}
+
+public Obj withMeta(IPersistentMap meta){
+	if(meta == meta())
+		return this;
+	return new LongRange(meta, start, step, count);
+}
+
+public Object first(){
+	return start;
+}
+
+public ISeq next(){
+	if(count > 1)
+		return new LongRange(start + step, step, count - 1);
+	return null;
+}
+
+public int count(){
+	return count;
+}
+
+public IChunk chunkedFirst(){
+	return new ArraySeq.Chunk(this, 0, Math.min(count, CHUNK_SIZE));
+}
+
+public Object at(int i){
+	return start + i * step;
+}
+
+public ISeq chunkedNext(){
+	if(count > CHUNK_SIZE)
+		return new LongRange(start + step * CHUNK_SIZE, step, count - CHUNK_SIZE);
+	return null;
+}
+
+public ISeq chunkedMore(){
+	ISeq s = chunkedNext();
+	if(s == null)
+		return PersistentList.EMPTY;
+	return s;
+}
+
+public Iterator iterator(){
+	return new Iterator(){
+		long next = start;
+		int remaining = count;
+
+		public boolean hasNext(){
+			return remaining > 0;
+		}
+
+		public Object next(){
+			if(remaining <= 0)
+				throw new NoSuchElementException();
+			long ret = next;
+			next += step;
+			remaining--;
+			return ret;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	};
+}
+
+public Object reduce(IFn f){
+	if(count == 1)
+		return start;
+	return reduce(start + step, step, count - 1, f, start);
+}
+
+public Object reduce(IFn f, Object init){
+	return reduce(start, step, count, f, init);
+}
+
+/*
+ * Reduces the n longs from start by step. Reducing fns hinted to take a long
+ * element are called without boxing it, and ones that also take and return
+ * a long accumulator without boxing at all.
+ */
+static Object reduce(long start, long step, int n, IFn f, Object init){
+	long x = start;
+	int i = 0;
+	if(init instanceof Long && f instanceof IFn.LLL)
+		{
+		IFn.LLL pf = (IFn.LLL) f;
+		long acc = (Long) init;
+		for(; i < n; i++, x += step)
+			acc = pf.invokePrim(acc, x);
+		return acc;
+		}
+	if(f instanceof IFn.OLO)
+		{
+		IFn.OLO pf = (IFn.OLO) f;
+		for(; i < n; i++, x += step)
+			{
+			init = pf.invokePrim(init, x);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		return init;
+		}
+	if(f instanceof IFn.LLO)
+		{
+		IFn.LLO pf = (IFn.LLO) f;
+		for(; i < n && init instanceof Long; i++, x += step)
+			{
+			init = pf.invokePrim((Long) init, x);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		}
+	for(; i < n; i++, x += step)
+		{
+		init = f.invoke(init, x);
+		if(RT.isReduced(init))
+			return ((IDeref) init).deref();
+		}
+	return init;
+}
+
+public Object fold(long n, IFn combinef, IFn reducef,
+                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+	if(count <= n)
+		return reduce(start, step, count, reducef, combinef.invoke());
+	return fjinvoke.invoke(foldTask(start, count, n, combinef, reducef, fjtask, fjfork, fjjoin));
+}
+
+//halves the interval until pieces are n or fewer
+Callable foldTask(final long from, final int cnt, final long n, final IFn combinef, final IFn reducef,
+                  final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	return new Callable(){
+		public Object call() throws Exception{
+			if(cnt <= n)
+				return reduce(from, step, cnt, reducef, combinef.invoke());
+			int half = cnt / 2;
+			Object forked = fjfork.invoke(fjtask.invoke(
+					foldTask(from + step * half, cnt - half, n, combinef, reducef, fjtask, fjfork, fjjoin)));
+			Object left = foldTask(from, half, n, combinef, reducef, fjtask, fjfork, fjjoin).call();
+			return combinef.invoke(left, fjjoin.invoke(forked));
+		}
+	};
+}
+}
@@ -99,6 +99,9 @@ public static int mixCollHash(int hash, int count){
 }
 
 public static int hashOrdered(Iterable xs){
+	if(xs instanceof ISeq)
+		return hashOrderedSeq((ISeq) xs);
+
 	int n = 0;
 	int hash = 1;
 
@@ -111,6 +114,33 @@ public static int hashOrdered(Iterable xs){
 	return mixCollHash(hash, n);
 }
 
+//walks seqs directly, a chunk at a time where they are chunked
+static int hashOrderedSeq(ISeq s){
+	int n = 0;
+	int hash = 1;
+
+	while(s != null)
+		{
+		if(s instanceof IChunkedSeq)
+			{
+			IChunk c = ((IChunkedSeq) s).chunkedFirst();
+			int cnt = c.count();
+			for(int j = 0; j < cnt; j++)
+				hash = 31 * hash + Util.hasheq(c.nth(j));
+			n += cnt;
+			s = ((IChunkedSeq) s).chunkedNext();
+			}
+		else
+			{
+			hash = 31 * hash + Util.hasheq(s.first());
+			++n;
+			s = s.next();
+			}
+		}
+
+	return mixCollHash(hash, n);
+}
+
 public static int hashUnordered(Iterable xs){
 	int hash = 0;
 	int n = 0;
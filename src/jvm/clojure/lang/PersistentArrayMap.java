@@ -14,6 +14,7 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Simple implementation of persistent map on an array
@@ -26,7 +27,7 @@ import java.util.Map;
  * null keys and values are ok, but you won't be able to distinguish a null value via valAt - use contains/entryAt
  */
 
-public class PersistentArrayMap extends APersistentMap implements IObj, IEditableCollection {
+public class PersistentArrayMap extends APersistentMap implements IObj, IEditableCollection, IMapIterable {
 
 final Object[] array;
 static final int HASHTABLE_THRESHOLD = 16;
@@ -58,6 +59,8 @@ PersistentArrayMap create(Object... init){
 }
 
 IPersistentMap createHT(Object[] init){
+	if(init.length < 2 * PersistentCompactMap.MAX_ENTRIES)
+		return PersistentCompactMap.create(meta(), init);
 	return PersistentHashMap.create(meta(), init);
 }
 
@@ -358,6 +361,41 @@ static class Iter implements Iterator{
 
 }
 
+//the keys or the vals of a key/val array, as start is 0 or 1
+static class SlotIter implements Iterator{
+	final Object[] array;
+	int i;
+
+	SlotIter(Object[] array, int start){
+		this.array = array;
+		this.i = start;
+	}
+
+	public boolean hasNext(){
+		return i < array.length;
+	}
+
+	public Object next(){
+		if(i >= array.length)
+			throw new NoSuchElementException();
+		Object ret = array[i];
+		i += 2;
+		return ret;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+
+public Iterator keyIterator(){
+	return new SlotIter(array, 0);
+}
+
+public Iterator valIterator(){
+	return new SlotIter(array, 1);
+}
+
 public Object kvreduce(IFn f, Object init){
     for(int i=0;i < array.length;i+=2){
         init = f.invoke(init, array[i], array[i+1]);
@@ -402,7 +440,7 @@ static final class TransientArrayMap extends ATransientMap {
 		else //didn't have key, grow
 			{
 			if(len >= array.length)
-				return PersistentHashMap.create(array).asTransient().assoc(key, val);
+				return new PersistentCompactMap.TransientCompactMap(array, len).assoc(key, val);
 			array[len++] = key;
 			array[len++] = val;
 			}
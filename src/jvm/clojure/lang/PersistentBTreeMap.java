@@ -0,0 +1,734 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Persistent B+ tree map
+ * Entries are kept in sorted array leaves of 16 to 32 entries, interior nodes
+ * hold the greatest key of each child. Updates copy one array per level,
+ * and seqs and kvreduce walk the leaf arrays in order.
+ * <p/>
+ * Can be used in place of PersistentTreeMap
+ */
+
+public class PersistentBTreeMap extends APersistentMap implements IObj, Reversible, Sorted, IEditableCollection, IMapIterable{
+
+static final int MAX = 32;
+static final int MIN = MAX / 2;
+
+public final Comparator comp;
+final Node root;
+final int count;
+final IPersistentMap _meta;
+
+final static public PersistentBTreeMap EMPTY = new PersistentBTreeMap(null, RT.DEFAULT_COMPARATOR);
+
+static public PersistentBTreeMap create(Map other){
+	ITransientMap ret = EMPTY.asTransient();
+	for(Object o : other.entrySet())
+		{
+		Map.Entry e = (Entry) o;
+		ret = ret.assoc(e.getKey(), e.getValue());
+		}
+	return (PersistentBTreeMap) ret.persistent();
+}
+
+static public PersistentBTreeMap create(ISeq items){
+	return create(RT.DEFAULT_COMPARATOR, items);
+}
+
+static public PersistentBTreeMap create(Comparator comp, ISeq items){
+	ITransientMap ret = new PersistentBTreeMap(null, comp).asTransient();
+	for(; items != null; items = items.next().next())
+		{
+		if(items.next() == null)
+			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
+		ret = ret.assoc(items.first(), RT.second(items));
+		}
+	return (PersistentBTreeMap) ret.persistent();
+}
+
+public PersistentBTreeMap(IPersistentMap meta, Comparator comp){
+	this(meta, comp, null, 0);
+}
+
+PersistentBTreeMap(IPersistentMap meta, Comparator comp, Node root, int count){
+	this._meta = meta;
+	this.comp = comp;
+	this.root = root;
+	this.count = count;
+}
+
+public PersistentBTreeMap withMeta(IPersistentMap meta){
+	return new PersistentBTreeMap(meta, comp, root, count);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public boolean containsKey(Object key){
+	return entryAt(key) != null;
+}
+
+public IMapEntry entryAt(Object key){
+	Node leaf = leafFor(comp, root, key);
+	if(leaf != null)
+		{
+		int i = search(comp, leaf.keys, leaf.len, key);
+		if(i >= 0)
+			return new MapEntry(leaf.keys[i], leaf.vals[i]);
+		}
+	return null;
+}
+
+public Object valAt(Object key, Object notFound){
+	return lookup(comp, root, key, notFound);
+}
+
+public Object valAt(Object key){
+	return valAt(key, null);
+}
+
+public PersistentBTreeMap assocEx(Object key, Object val) {
+	if(containsKey(key))
+		throw Util.runtimeException("Key already present");
+	return assoc(key, val);
+}
+
+public PersistentBTreeMap assoc(Object key, Object val){
+	if(root == null)
+		return new PersistentBTreeMap(_meta, comp, Leaf.create(null, key, val), 1);
+	Box added = new Box(null);
+	Box split = new Box(null);
+	Node n = root.assoc(comp, null, key, val, added, split);
+	if(n == root)
+		return this;
+	return new PersistentBTreeMap(_meta, comp, grow(null, n, split), added.val != null ? count + 1 : count);
+}
+
+public PersistentBTreeMap without(Object key){
+	if(root == null)
+		return this;
+	Box removed = new Box(null);
+	Node n = root.without(comp, null, key, removed);
+	if(removed.val == null)
+		return this;
+	return new PersistentBTreeMap(_meta, comp, shrink(n), count - 1);
+}
+
+public int count(){
+	return count;
+}
+
+public ISeq seq(){
+	return seq(true);
+}
+
+public ISeq rseq(){
+	return seq(false);
+}
+
+public IPersistentCollection empty(){
+	return new PersistentBTreeMap(meta(), comp);
+}
+
+public Comparator comparator(){
+	return comp;
+}
+
+public Object entryKey(Object entry){
+	return ((IMapEntry) entry).key();
+}
+
+public ISeq seq(boolean ascending){
+	if(count > 0)
+		return Seq.create(root, ascending, count);
+	return null;
+}
+
+public ISeq seqFrom(Object key, boolean ascending){
+	Node n = root;
+	Frame path = null;
+	while(n instanceof Inner)
+		{
+		int i = childIndex(comp, n, key);
+		if(i == n.len)
+			{
+			if(ascending)
+				return null;
+			i = n.len - 1;
+			}
+		path = new Frame(n, i, path);
+		n = n.child(i);
+		}
+	if(n == null)
+		return null;
+	int i = search(comp, n.keys, n.len, key);
+	if(i < 0)
+		{
+		i = -(i + 1);
+		if(!ascending)
+			i--;
+		}
+	if(i < 0)
+		return Seq.nextLeaf(path, false, -1);
+	if(i == n.len)
+		return null;
+	return new Seq(path, n, i, ascending, -1);
+}
+
+public Iterator iterator(){
+	return new EntryIterator(count > 0 ? Seq.create(root, true, count) : null, EntryIterator.ENTRIES);
+}
+
+public Iterator keyIterator(){
+	return new EntryIterator(count > 0 ? Seq.create(root, true, count) : null, EntryIterator.KEYS);
+}
+
+public Iterator valIterator(){
+	return new EntryIterator(count > 0 ? Seq.create(root, true, count) : null, EntryIterator.VALS);
+}
+
+public Object kvreduce(IFn f, Object init){
+	if(root != null)
+		init = root.kvreduce(f, init);
+	if(RT.isReduced(init))
+		init = ((IDeref) init).deref();
+	return init;
+}
+
+public Object minKey(){
+	if(root == null)
+		return null;
+	Node n = root;
+	while(n instanceof Inner)
+		n = n.child(0);
+	return n.keys[0];
+}
+
+public Object maxKey(){
+	return root != null ? root.maxKey() : null;
+}
+
+public ITransientMap asTransient(){
+	return new TransientBTreeMap(this);
+}
+
+static Object lookup(Comparator comp, Node root, Object key, Object notFound){
+	Node leaf = leafFor(comp, root, key);
+	if(leaf != null)
+		{
+		int i = search(comp, leaf.keys, leaf.len, key);
+		if(i >= 0)
+			return leaf.vals[i];
+		}
+	return notFound;
+}
+
+//the only leaf that may hold key, null if key is past the greatest key
+static Node leafFor(Comparator comp, Node n, Object key){
+	while(n instanceof Inner)
+		{
+		int i = childIndex(comp, n, key);
+		if(i == n.len)
+			return null;
+		n = n.child(i);
+		}
+	return n;
+}
+
+//index of key in keys, or -(insertion point + 1)
+static int search(Comparator comp, Object[] keys, int len, Object key){
+	int lo = 0;
+	int hi = len - 1;
+	while(lo <= hi)
+		{
+		int mid = (lo + hi) >>> 1;
+		int c = comp.compare(key, keys[mid]);
+		if(c > 0)
+			lo = mid + 1;
+		else if(c < 0)
+			hi = mid - 1;
+		else
+			return mid;
+		}
+	return -(lo + 1);
+}
+
+//first child whose greatest key is not less than key, len if none
+static int childIndex(Comparator comp, Node n, Object key){
+	int i = search(comp, n.keys, n.len, key);
+	return i >= 0 ? i : -(i + 1);
+}
+
+static Node grow(AtomicReference<Thread> edit, Node n, Box split){
+	if(split.val == null)
+		return n;
+	Node right = (Node) split.val;
+	Object[] keys = alloc(edit, 2);
+	Object[] children = alloc(edit, 2);
+	keys[0] = n.maxKey();
+	keys[1] = right.maxKey();
+	children[0] = n;
+	children[1] = right;
+	return new Inner(edit, keys, children, 2);
+}
+
+static Node shrink(Node n){
+	if(n.len == 0)
+		return null;
+	if(n instanceof Inner && n.len == 1)
+		return n.child(0);
+	return n;
+}
+
+//nodes owned by a transient get room to grow in place
+static Object[] alloc(AtomicReference<Thread> edit, int n){
+	return new Object[edit == null ? n : MAX];
+}
+
+static Object[] fit(AtomicReference<Thread> edit, Object[] array, int start, int end){
+	Object[] ret = alloc(edit, end - start);
+	System.arraycopy(array, start, ret, 0, end - start);
+	return ret;
+}
+
+static abstract class Node implements Serializable{
+	transient final AtomicReference<Thread> edit;
+	Object[] keys;
+	//values in leaves, child nodes in interior nodes
+	Object[] vals;
+	int len;
+
+	Node(AtomicReference<Thread> edit, Object[] keys, Object[] vals, int len){
+		this.edit = edit;
+		this.keys = keys;
+		this.vals = vals;
+		this.len = len;
+	}
+
+	abstract Node make(AtomicReference<Thread> edit, Object[] keys, Object[] vals, int len);
+
+	abstract Node assoc(Comparator comp, AtomicReference<Thread> edit, Object key, Object val, Box added, Box split);
+
+	abstract Node without(Comparator comp, AtomicReference<Thread> edit, Object key, Box removed);
+
+	abstract Object kvreduce(IFn f, Object init);
+
+	Object maxKey(){
+		return keys[len - 1];
+	}
+
+	Node child(int i){
+		return (Node) vals[i];
+	}
+
+	boolean editable(AtomicReference<Thread> edit){
+		return edit != null && this.edit == edit;
+	}
+
+	Node set(AtomicReference<Thread> edit, int i, Object key, Object val){
+		if(editable(edit))
+			{
+			keys[i] = key;
+			vals[i] = val;
+			return this;
+			}
+		Object[] ks = fit(edit, keys, 0, len);
+		Object[] vs = fit(edit, vals, 0, len);
+		ks[i] = key;
+		vs[i] = val;
+		return make(edit, ks, vs, len);
+	}
+
+	//inserts before entry i, a full node splits and puts its upper half in split
+	Node insert(AtomicReference<Thread> edit, int i, Object key, Object val, Box split){
+		if(editable(edit) && len < keys.length)
+			{
+			System.arraycopy(keys, i, keys, i + 1, len - i);
+			System.arraycopy(vals, i, vals, i + 1, len - i);
+			keys[i] = key;
+			vals[i] = val;
+			len++;
+			return this;
+			}
+		Object[] ks = new Object[len + 1];
+		Object[] vs = new Object[len + 1];
+		System.arraycopy(keys, 0, ks, 0, i);
+		System.arraycopy(vals, 0, vs, 0, i);
+		ks[i] = key;
+		vs[i] = val;
+		System.arraycopy(keys, i, ks, i + 1, len - i);
+		System.arraycopy(vals, i, vs, i + 1, len - i);
+		return pack(edit, ks, vs, len + 1, split);
+	}
+
+	Node remove(AtomicReference<Thread> edit, int i){
+		if(editable(edit))
+			{
+			System.arraycopy(keys, i + 1, keys, i, len - i - 1);
+			System.arraycopy(vals, i + 1, vals, i, len - i - 1);
+			len--;
+			keys[len] = null;
+			vals[len] = null;
+			return this;
+			}
+		Object[] ks = alloc(edit, len - 1);
+		Object[] vs = alloc(edit, len - 1);
+		System.arraycopy(keys, 0, ks, 0, i);
+		System.arraycopy(vals, 0, vs, 0, i);
+		System.arraycopy(keys, i + 1, ks, i, len - i - 1);
+		System.arraycopy(vals, i + 1, vs, i, len - i - 1);
+		return make(edit, ks, vs, len - 1);
+	}
+
+	//one node of the n entries in the fresh arrays ks and vs, or two halves when n is over MAX
+	Node pack(AtomicReference<Thread> edit, Object[] ks, Object[] vs, int n, Box split){
+		if(n <= MAX)
+			{
+			if(edit == null)
+				return make(edit, ks, vs, n);
+			return make(edit, fit(edit, ks, 0, n), fit(edit, vs, 0, n), n);
+			}
+		int half = n / 2;
+		split.val = make(edit, fit(edit, ks, half, n), fit(edit, vs, half, n), n - half);
+		return make(edit, fit(edit, ks, 0, half), fit(edit, vs, 0, half), half);
+	}
+}
+
+static final class Leaf extends Node{
+	Leaf(AtomicReference<Thread> edit, Object[] keys, Object[] vals, int len){
+		super(edit, keys, vals, len);
+	}
+
+	static Leaf create(AtomicReference<Thread> edit, Object key, Object val){
+		Object[] keys = alloc(edit, 1);
+		Object[] vals = alloc(edit, 1);
+		keys[0] = key;
+		vals[0] = val;
+		return new Leaf(edit, keys, vals, 1);
+	}
+
+	Node make(AtomicReference<Thread> edit, Object[] keys, Object[] vals, int len){
+		return new Leaf(edit, keys, vals, len);
+	}
+
+	Node assoc(Comparator comp, AtomicReference<Thread> edit, Object key, Object val, Box added, Box split){
+		int i = search(comp, keys, len, key);
+		if(i >= 0)
+			{
+			if(vals[i] == val)
+				return this;
+			return set(edit, i, keys[i], val);
+			}
+		added.val = added;
+		return insert(edit, -(i + 1), key, val, split);
+	}
+
+	Node without(Comparator comp, AtomicReference<Thread> edit, Object key, Box removed){
+		int i = search(comp, keys, len, key);
+		if(i < 0)
+			return this;
+		removed.val = removed;
+		return remove(edit, i);
+	}
+
+	Object kvreduce(IFn f, Object init){
+		for(int i = 0; i < len; i++)
+			{
+			init = f.invoke(init, keys[i], vals[i]);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+}
+
+static final class Inner extends Node{
+	Inner(AtomicReference<Thread> edit, Object[] keys, Object[] children, int len){
+		super(edit, keys, children, len);
+	}
+
+	Node make(AtomicReference<Thread> edit, Object[] keys, Object[] vals, int len){
+		return new Inner(edit, keys, vals, len);
+	}
+
+	Node assoc(Comparator comp, AtomicReference<Thread> edit, Object key, Object val, Box added, Box split){
+		int i = childIndex(comp, this, key);
+		if(i == len)
+			i = len - 1;
+		Node c = child(i);
+		Node n = c.assoc(comp, edit, key, val, added, split);
+		if(split.val != null)
+			{
+			Node right = (Node) split.val;
+			split.val = null;
+			return set(edit, i, n.maxKey(), n).insert(edit, i + 1, right.maxKey(), right, split);
+			}
+		if(n == c)
+			{
+			//edited in place, the greatest key may have changed
+			if(editable(edit))
+				keys[i] = n.maxKey();
+			return this;
+			}
+		return set(edit, i, n.maxKey(), n);
+	}
+
+	Node without(Comparator comp, AtomicReference<Thread> edit, Object key, Box removed){
+		int i = childIndex(comp, this, key);
+		if(i == len)
+			return this;
+		Node n = child(i).without(comp, edit, key, removed);
+		if(removed.val == null)
+			return this;
+		if(n.len >= MIN)
+			return set(edit, i, n.maxKey(), n);
+		//underfull, merge with a neighbour or even out with it
+		int lo = i > 0 ? i - 1 : i;
+		Node a = lo == i ? n : child(lo);
+		Node b = lo == i ? child(i + 1) : n;
+		int total = a.len + b.len;
+		Object[] ks = new Object[total];
+		Object[] vs = new Object[total];
+		System.arraycopy(a.keys, 0, ks, 0, a.len);
+		System.arraycopy(a.vals, 0, vs, 0, a.len);
+		System.arraycopy(b.keys, 0, ks, a.len, b.len);
+		System.arraycopy(b.vals, 0, vs, a.len, b.len);
+		Box split = new Box(null);
+		Node left = a.pack(edit, ks, vs, total, split);
+		Node ret = set(edit, lo, left.maxKey(), left);
+		if(split.val == null)
+			return ret.remove(edit, lo + 1);
+		Node right = (Node) split.val;
+		return ret.set(edit, lo + 1, right.maxKey(), right);
+	}
+
+	Object kvreduce(IFn f, Object init){
+		for(int i = 0; i < len; i++)
+			{
+			init = child(i).kvreduce(f, init);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+}
+
+//position in an interior node on the way down to a leaf
+static final class Frame implements Serializable{
+	final Node node;
+	final int i;
+	final Frame parent;
+
+	Frame(Node node, int i, Frame parent){
+		this.node = node;
+		this.i = i;
+		this.parent = parent;
+	}
+}
+
+static public class Seq extends ASeq{
+	final Frame path;
+	final Node leaf;
+	final int i;
+	final boolean asc;
+	final int cnt;
+
+	Seq(Frame path, Node leaf, int i, boolean asc, int cnt){
+		this.path = path;
+		this.leaf = leaf;
+		this.i = i;
+		this.asc = asc;
+		this.cnt = cnt;
+	}
+
+	Seq(IPersistentMap meta, Frame path, Node leaf, int i, boolean asc, int cnt){
+		super(meta);
+		this.path = path;
+		this.leaf = leaf;
+		this.i = i;
+		this.asc = asc;
+		this.cnt = cnt;
+	}
+
+	static Seq create(Node root, boolean asc, int cnt){
+		return descend(root, null, asc, cnt);
+	}
+
+	//first entry of n in seq order
+	static Seq descend(Node n, Frame path, boolean asc, int cnt){
+		while(n instanceof Inner)
+			{
+			int i = asc ? 0 : n.len - 1;
+			path = new Frame(n, i, path);
+			n = n.child(i);
+			}
+		return new Seq(path, n, asc ? 0 : n.len - 1, asc, cnt);
+	}
+
+	//first entry of the leaf following the one under path
+	static Seq nextLeaf(Frame path, boolean asc, int cnt){
+		for(; path != null; path = path.parent)
+			{
+			int i = asc ? path.i + 1 : path.i - 1;
+			if(i >= 0 && i < path.node.len)
+				return descend(path.node.child(i), new Frame(path.node, i, path.parent), asc, cnt);
+			}
+		return null;
+	}
+
+	public Object first(){
+		return new MapEntry(leaf.keys[i], leaf.vals[i]);
+	}
+
+	public ISeq next(){
+		int j = asc ? i + 1 : i - 1;
+		int c = cnt < 0 ? -1 : cnt - 1;
+		if(j >= 0 && j < leaf.len)
+			return new Seq(path, leaf, j, asc, c);
+		return nextLeaf(path, asc, c);
+	}
+
+	public int count(){
+		if(cnt < 0)
+			return super.count();
+		return cnt;
+	}
+
+	public Obj withMeta(IPersistentMap meta){
+		return new Seq(meta, path, leaf, i, asc, cnt);
+	}
+}
+
+static class EntryIterator implements Iterator{
+	static final int ENTRIES = 0;
+	static final int KEYS = 1;
+	static final int VALS = 2;
+
+	final int mode;
+	Frame path;
+	Node leaf;
+	int i;
+
+	EntryIterator(Seq s, int mode){
+		this.mode = mode;
+		if(s != null)
+			{
+			path = s.path;
+			leaf = s.leaf;
+			}
+	}
+
+	public boolean hasNext(){
+		return leaf != null;
+	}
+
+	public Object next(){
+		if(leaf == null)
+			throw new NoSuchElementException();
+		Object ret;
+		if(mode == KEYS)
+			ret = leaf.keys[i];
+		else if(mode == VALS)
+			ret = leaf.vals[i];
+		else
+			ret = new MapEntry(leaf.keys[i], leaf.vals[i]);
+		if(++i == leaf.len)
+			{
+			Seq s = Seq.nextLeaf(path, true, -1);
+			path = s != null ? s.path : null;
+			leaf = s != null ? s.leaf : null;
+			i = 0;
+			}
+		return ret;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+
+static final class TransientBTreeMap extends ATransientMap{
+	final AtomicReference<Thread> edit;
+	final Comparator comp;
+	Node root;
+	int count;
+	final Box leafFlag = new Box(null);
+	final Box split = new Box(null);
+
+	TransientBTreeMap(PersistentBTreeMap m){
+		this.edit = new AtomicReference<Thread>(Thread.currentThread());
+		this.comp = m.comp;
+		this.root = m.root;
+		this.count = m.count;
+	}
+
+	ITransientMap doAssoc(Object key, Object val){
+		if(root == null)
+			{
+			root = Leaf.create(edit, key, val);
+			count = 1;
+			return this;
+			}
+		leafFlag.val = null;
+		split.val = null;
+		Node n = root.assoc(comp, edit, key, val, leafFlag, split);
+		root = grow(edit, n, split);
+		if(leafFlag.val != null)
+			count++;
+		return this;
+	}
+
+	ITransientMap doWithout(Object key){
+		if(root == null)
+			return this;
+		leafFlag.val = null;
+		Node n = root.without(comp, edit, key, leafFlag);
+		if(leafFlag.val != null)
+			{
+			root = shrink(n);
+			count--;
+			}
+		return this;
+	}
+
+	IPersistentMap doPersistent(){
+		edit.set(null);
+		return new PersistentBTreeMap(null, comp, root, count);
+	}
+
+	Object doValAt(Object key, Object notFound){
+		return lookup(comp, root, key, notFound);
+	}
+
+	int doCount(){
+		return count;
+	}
+
+	void ensureEditable(){
+		Thread owner = edit.get();
+		if(owner == Thread.currentThread())
+			return;
+		if(owner != null)
+			throw new IllegalAccessError("Transient used by non-owner thread");
+		throw new IllegalAccessError("Transient used after persistent! call");
+	}
+}
+}
@@ -0,0 +1,97 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.Comparator;
+
+public class PersistentBTreeSet extends APersistentSet implements IObj, Reversible, Sorted, IEditableCollection{
+static public final PersistentBTreeSet EMPTY = new PersistentBTreeSet(null, PersistentBTreeMap.EMPTY);
+final IPersistentMap _meta;
+
+
+static public PersistentBTreeSet create(ISeq items){
+	return create(RT.DEFAULT_COMPARATOR, items);
+}
+
+static public PersistentBTreeSet create(Comparator comp, ISeq items){
+	ITransientSet ret = (ITransientSet) new PersistentBTreeSet(null, new PersistentBTreeMap(null, comp)).asTransient();
+	for(; items != null; items = items.next())
+		{
+		ret = (ITransientSet) ret.conj(items.first());
+		}
+	return (PersistentBTreeSet) ret.persistent();
+}
+
+PersistentBTreeSet(IPersistentMap meta, IPersistentMap impl){
+	super(impl);
+	this._meta = meta;
+}
+
+public IPersistentSet disjoin(Object key) {
+	if(contains(key))
+		return new PersistentBTreeSet(meta(),impl.without(key));
+	return this;
+}
+
+public IPersistentSet cons(Object o){
+	if(contains(o))
+		return this;
+	return new PersistentBTreeSet(meta(),impl.assoc(o,o));
+}
+
+public IPersistentCollection empty(){
+	return new PersistentBTreeSet(meta(),(PersistentBTreeMap)impl.empty());
+}
+
+public ISeq rseq() {
+	return APersistentMap.KeySeq.create(((Reversible) impl).rseq());
+}
+
+public PersistentBTreeSet withMeta(IPersistentMap meta){
+	return new PersistentBTreeSet(meta, impl);
+}
+
+public Comparator comparator(){
+	return ((Sorted)impl).comparator();
+}
+
+public Object entryKey(Object entry){
+	return entry;
+}
+
+public ISeq seq(boolean ascending){
+	PersistentBTreeMap m = (PersistentBTreeMap) impl;
+	return RT.keys(m.seq(ascending));
+}
+
+public ISeq seqFrom(Object key, boolean ascending){
+	PersistentBTreeMap m = (PersistentBTreeMap) impl;
+	return RT.keys(m.seqFrom(key,ascending));
+}
+
+public ITransientCollection asTransient() {
+	return new TransientBTreeSet(((PersistentBTreeMap) impl).asTransient());
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+static final class TransientBTreeSet extends ATransientSet {
+	TransientBTreeSet(ITransientMap impl) {
+		super(impl);
+	}
+
+	public IPersistentCollection persistent() {
+		return new PersistentBTreeSet(null, impl.persistent());
+	}
+}
+}
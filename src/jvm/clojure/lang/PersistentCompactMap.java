@@ -0,0 +1,339 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent map for the sizes between PersistentArrayMap and PersistentHashMap
+ * <p/>
+ * Entries are kept in insertion order in a single key/val array, with the hasheq
+ * of each key cached in a parallel int array. A linear probing table of entry
+ * indexes, at most half full, finds a key with one hash computation and usually
+ * one key comparison, touching a few cache lines rather than a trie path.
+ * <p/>
+ * Like PersistentArrayMap, copies its arrays on every change. Maps grow into a
+ * PersistentHashMap past MAX_ENTRIES and shrink back into a PersistentArrayMap.
+ */
+
+public class PersistentCompactMap extends APersistentMap implements IObj, IEditableCollection, IMapIterable{
+
+static final int MAX_ENTRIES = 64;
+static final int MIN_TABLE = 32;
+
+final Object[] array;
+final int[] hashes;
+//entry index + 1, 0 for an empty slot
+final byte[] table;
+final IPersistentMap _meta;
+
+static public IPersistentMap create(Map other){
+	ITransientMap ret = PersistentArrayMap.EMPTY.asTransient();
+	for(Object o : other.entrySet())
+		{
+		Map.Entry e = (Entry) o;
+		ret = ret.assoc(e.getKey(), e.getValue());
+		}
+	return ret.persistent();
+}
+
+/**
+ * The keys of init must be distinct, and there must be more than fit an
+ * array map and at most MAX_ENTRIES of them. Captures init.
+ */
+static PersistentCompactMap create(IPersistentMap meta, Object[] init){
+	int n = init.length / 2;
+	int[] hashes = new int[n];
+	for(int i = 0; i < n; i++)
+		hashes[i] = Util.hasheq(init[2 * i]);
+	return new PersistentCompactMap(meta, init, hashes, buildTable(hashes, n));
+}
+
+static public PersistentCompactMap createWithCheck(Object[] init){
+	int n = init.length / 2;
+	int[] hashes = new int[n];
+	byte[] table = new byte[tableSize(n)];
+	for(int i = 0; i < n; i++)
+		{
+		Object key = init[2 * i];
+		int h = Util.hasheq(key);
+		if(indexOf(table, hashes, init, key, h) >= 0)
+			throw new IllegalArgumentException("Duplicate key: " + key);
+		hashes[i] = h;
+		insert(table, h, i);
+		}
+	return new PersistentCompactMap(null, init, hashes, table);
+}
+
+PersistentCompactMap(IPersistentMap meta, Object[] array, int[] hashes, byte[] table){
+	this._meta = meta;
+	this.array = array;
+	this.hashes = hashes;
+	this.table = table;
+}
+
+static int tableSize(int n){
+	int size = MIN_TABLE;
+	while(size < 2 * n)
+		size <<= 1;
+	return size;
+}
+
+static int slot(int h, int mask){
+	return (h ^ (h >>> 16)) & mask;
+}
+
+static byte[] buildTable(int[] hashes, int n){
+	byte[] table = new byte[tableSize(n)];
+	for(int i = 0; i < n; i++)
+		insert(table, hashes[i], i);
+	return table;
+}
+
+static void insert(byte[] table, int h, int i){
+	int mask = table.length - 1;
+	int s = slot(h, mask);
+	while(table[s] != 0)
+		s = (s + 1) & mask;
+	table[s] = (byte) (i + 1);
+}
+
+static int indexOf(byte[] table, int[] hashes, Object[] array, Object key, int h){
+	int mask = table.length - 1;
+	for(int s = slot(h, mask); ; s = (s + 1) & mask)
+		{
+		int e = table[s];
+		if(e == 0)
+			return -1;
+		e--;
+		if(hashes[e] == h && Util.equiv(key, array[2 * e]))
+			return e;
+		}
+}
+
+private int indexOf(Object key){
+	return indexOf(table, hashes, array, key, Util.hasheq(key));
+}
+
+public PersistentCompactMap withMeta(IPersistentMap meta){
+	return new PersistentCompactMap(meta, array, hashes, table);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public int count(){
+	return hashes.length;
+}
+
+public boolean containsKey(Object key){
+	return indexOf(key) >= 0;
+}
+
+public IMapEntry entryAt(Object key){
+	int i = indexOf(key);
+	if(i >= 0)
+		return new MapEntry(array[2 * i], array[2 * i + 1]);
+	return null;
+}
+
+public Object valAt(Object key, Object notFound){
+	int i = indexOf(key);
+	if(i >= 0)
+		return array[2 * i + 1];
+	return notFound;
+}
+
+public Object valAt(Object key){
+	return valAt(key, null);
+}
+
+public IPersistentMap assocEx(Object key, Object val){
+	if(indexOf(key) >= 0)
+		throw Util.runtimeException("Key already present");
+	return assoc(key, val);
+}
+
+public IPersistentMap assoc(Object key, Object val){
+	int h = Util.hasheq(key);
+	int i = indexOf(table, hashes, array, key, h);
+	if(i >= 0) //already have key, same-sized replacement
+		{
+		if(array[2 * i + 1] == val)
+			return this;
+		Object[] newArray = array.clone();
+		newArray[2 * i + 1] = val;
+		return new PersistentCompactMap(meta(), newArray, hashes, table);
+		}
+	int n = hashes.length;
+	if(n >= MAX_ENTRIES)
+		return PersistentHashMap.create(meta(), array).assoc(key, val);
+	Object[] newArray = Arrays.copyOf(array, 2 * n + 2);
+	newArray[2 * n] = key;
+	newArray[2 * n + 1] = val;
+	int[] newHashes = Arrays.copyOf(hashes, n + 1);
+	newHashes[n] = h;
+	byte[] newTable;
+	if(tableSize(n + 1) == table.length)
+		{
+		newTable = table.clone();
+		insert(newTable, h, n);
+		}
+	else
+		newTable = buildTable(newHashes, n + 1);
+	return new PersistentCompactMap(meta(), newArray, newHashes, newTable);
+}
+
+public IPersistentMap without(Object key){
+	int i = indexOf(key);
+	if(i < 0)
+		return this;
+	int n = hashes.length - 1;
+	Object[] newArray = new Object[2 * n];
+	System.arraycopy(array, 0, newArray, 0, 2 * i);
+	System.arraycopy(array, 2 * i + 2, newArray, 2 * i, 2 * (n - i));
+	if(2 * n <= PersistentArrayMap.HASHTABLE_THRESHOLD)
+		return new PersistentArrayMap(meta(), newArray);
+	int[] newHashes = new int[n];
+	System.arraycopy(hashes, 0, newHashes, 0, i);
+	System.arraycopy(hashes, i + 1, newHashes, i, n - i);
+	return new PersistentCompactMap(meta(), newArray, newHashes, buildTable(newHashes, n));
+}
+
+public IPersistentMap empty(){
+	return (IPersistentMap) PersistentArrayMap.EMPTY.withMeta(meta());
+}
+
+public Iterator iterator(){
+	return new PersistentArrayMap.Iter(array);
+}
+
+public Iterator keyIterator(){
+	return new PersistentArrayMap.SlotIter(array, 0);
+}
+
+public Iterator valIterator(){
+	return new PersistentArrayMap.SlotIter(array, 1);
+}
+
+public ISeq seq(){
+	return new PersistentArrayMap.Seq(array, 0);
+}
+
+public Object kvreduce(IFn f, Object init){
+	for(int i = 0; i < array.length; i += 2)
+		{
+		init = f.invoke(init, array[i], array[i + 1]);
+		if(RT.isReduced(init))
+			return ((IDeref) init).deref();
+		}
+	return init;
+}
+
+public ITransientMap asTransient(){
+	return new TransientCompactMap(array, hashes);
+}
+
+static final class TransientCompactMap extends ATransientMap{
+	final Object[] array = new Object[2 * MAX_ENTRIES];
+	final int[] hashes = new int[MAX_ENTRIES];
+	final byte[] table = new byte[tableSize(MAX_ENTRIES)];
+	int count;
+	Thread owner;
+
+	TransientCompactMap(Object[] array, int[] hashes){
+		this.owner = Thread.currentThread();
+		this.count = hashes.length;
+		System.arraycopy(array, 0, this.array, 0, 2 * count);
+		System.arraycopy(hashes, 0, this.hashes, 0, count);
+		for(int i = 0; i < count; i++)
+			insert(table, hashes[i], i);
+	}
+
+	//a full transient array map, fresh keys
+	TransientCompactMap(Object[] array, int len){
+		this.owner = Thread.currentThread();
+		this.count = len / 2;
+		System.arraycopy(array, 0, this.array, 0, len);
+		for(int i = 0; i < count; i++)
+			{
+			hashes[i] = Util.hasheq(array[2 * i]);
+			insert(table, hashes[i], i);
+			}
+	}
+
+	ITransientMap doAssoc(Object key, Object val){
+		int h = Util.hasheq(key);
+		int i = indexOf(table, hashes, array, key, h);
+		if(i >= 0)
+			array[2 * i + 1] = val;
+		else
+			{
+			if(count >= MAX_ENTRIES)
+				return PersistentHashMap.create(Arrays.copyOf(array, 2 * count)).asTransient().assoc(key, val);
+			array[2 * count] = key;
+			array[2 * count + 1] = val;
+			hashes[count] = h;
+			insert(table, h, count);
+			count++;
+			}
+		return this;
+	}
+
+	ITransientMap doWithout(Object key){
+		int i = indexOf(table, hashes, array, key, Util.hasheq(key));
+		if(i >= 0)
+			{
+			count--;
+			array[2 * i] = array[2 * count];
+			array[2 * i + 1] = array[2 * count + 1];
+			hashes[i] = hashes[count];
+			array[2 * count] = array[2 * count + 1] = null;
+			Arrays.fill(table, (byte) 0);
+			for(int j = 0; j < count; j++)
+				insert(table, hashes[j], j);
+			}
+		return this;
+	}
+
+	Object doValAt(Object key, Object notFound){
+		int i = indexOf(table, hashes, array, key, Util.hasheq(key));
+		if(i >= 0)
+			return array[2 * i + 1];
+		return notFound;
+	}
+
+	int doCount(){
+		return count;
+	}
+
+	IPersistentMap doPersistent(){
+		ensureEditable();
+		owner = null;
+		Object[] a = Arrays.copyOf(array, 2 * count);
+		if(a.length <= PersistentArrayMap.HASHTABLE_THRESHOLD)
+			return new PersistentArrayMap(a);
+		int[] h = Arrays.copyOf(hashes, count);
+		return new PersistentCompactMap(null, a, h, buildTable(h, count));
+	}
+
+	void ensureEditable(){
+		if(owner == Thread.currentThread())
+			return;
+		if(owner != null)
+			throw new IllegalAccessError("Transient used by non-owner thread");
+		throw new IllegalAccessError("Transient used after persistent! call");
+	}
+}
+}
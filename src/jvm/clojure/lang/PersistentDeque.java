@@ -0,0 +1,516 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * conses, peeks and pops at both ends
+ * A PersistentRRBVector, whose tail serves the last end, behind a head array
+ * of up to 32 items serving the first. Only when the head fills up or runs
+ * out does a full leaf move between it and the vector, by concat or slice in
+ * O(log n), so the operations are O(1) for all but one in 32 moving in one
+ * direction, and never more than O(log n), however versions are reused.
+ * <p/>
+ * As an IPersistentStack it behaves like a vector: conj, peek and pop work
+ * at the last end.
+ */
+
+public class PersistentDeque extends Obj implements IPersistentStack, Reversible, Indexed, Sequential,
+                                                    Collection, IHashEq, IReduce, IEditableCollection{
+
+static final int BRANCH = PersistentRRBVector.BRANCH;
+
+final public static PersistentDeque EMPTY = new PersistentDeque(null, RT.EMPTY_ARRAY, PersistentRRBVector.EMPTY);
+
+//the first items, then those of v
+final Object[] head;
+final PersistentRRBVector v;
+int _hash = -1;
+int _hasheq = -1;
+
+static public PersistentDeque create(List init){
+	if(init instanceof PersistentRRBVector)
+		return new PersistentDeque(null, RT.EMPTY_ARRAY, (PersistentRRBVector) init);
+	if(init instanceof PersistentVector)
+		return new PersistentDeque(null, RT.EMPTY_ARRAY, PersistentRRBVector.create((PersistentVector) init));
+	return new PersistentDeque(null, RT.EMPTY_ARRAY, PersistentRRBVector.create(PersistentVector.create(init)));
+}
+
+static public PersistentDeque create(ISeq items){
+	return new PersistentDeque(null, RT.EMPTY_ARRAY, PersistentRRBVector.create(items));
+}
+
+PersistentDeque(IPersistentMap meta, Object[] head, PersistentRRBVector v){
+	super(meta);
+	this.head = head;
+	this.v = v;
+}
+
+public PersistentDeque withMeta(IPersistentMap meta){
+	return new PersistentDeque(meta, head, v);
+}
+
+public int count(){
+	return head.length + v.cnt;
+}
+
+public IPersistentCollection empty(){
+	return EMPTY.withMeta(meta());
+}
+
+public PersistentDeque cons(Object o){
+	return consLast(o);
+}
+
+public PersistentDeque consFirst(Object o){
+	if(head.length < BRANCH)
+		return new PersistentDeque(meta(), prepend(o, head), v);
+	return new PersistentDeque(meta(), new Object[]{o}, leaf(head).concat(v));
+}
+
+public PersistentDeque consLast(Object o){
+	return new PersistentDeque(meta(), head, v.cons(o));
+}
+
+public Object peek(){
+	return peekLast();
+}
+
+public Object peekFirst(){
+	if(head.length > 0)
+		return head[0];
+	if(v.cnt > 0)
+		return v.nth(0);
+	return null;
+}
+
+public Object peekLast(){
+	if(v.cnt > 0)
+		return v.nth(v.cnt - 1);
+	if(head.length > 0)
+		return head[head.length - 1];
+	return null;
+}
+
+public PersistentDeque pop(){
+	return popLast();
+}
+
+public PersistentDeque popFirst(){
+	if(head.length > 0)
+		return new PersistentDeque(meta(), copy(head, 1, head.length), v);
+	if(v.cnt == 0)
+		throw new IllegalStateException("Can't pop empty deque");
+	//the first leaf becomes the head
+	Object[] array = v.arrayFor(0);
+	return new PersistentDeque(meta(), copy(array, 1, array.length), v.slice(array.length, v.cnt));
+}
+
+public PersistentDeque popLast(){
+	if(v.cnt > 0)
+		return new PersistentDeque(meta(), head, v.pop());
+	if(head.length == 0)
+		throw new IllegalStateException("Can't pop empty deque");
+	return new PersistentDeque(meta(), copy(head, 0, head.length - 1), v);
+}
+
+static Object[] prepend(Object o, Object[] array){
+	Object[] ret = new Object[array.length + 1];
+	ret[0] = o;
+	System.arraycopy(array, 0, ret, 1, array.length);
+	return ret;
+}
+
+static Object[] copy(Object[] array, int start, int end){
+	if(start == end)
+		return RT.EMPTY_ARRAY;
+	Object[] ret = new Object[end - start];
+	System.arraycopy(array, start, ret, 0, ret.length);
+	return ret;
+}
+
+//a full head as a vector to concat onto the front of v
+static PersistentRRBVector leaf(Object[] array){
+	return new PersistentRRBVector(null, array.length, 5, PersistentRRBVector.EMPTY_ROOT, array);
+}
+
+public Object nth(int i){
+	if(i >= 0 && i < head.length)
+		return head[i];
+	return v.nth(i - head.length);
+}
+
+public Object nth(int i, Object notFound){
+	if(i >= 0 && i < count())
+		return nth(i);
+	return notFound;
+}
+
+public ISeq seq(){
+	if(head.length > 0)
+		return new Seq(head, 0, v);
+	return v.seq();
+}
+
+public ISeq rseq(){
+	if(count() > 0)
+		return new RSeq(this, count() - 1);
+	return null;
+}
+
+public Object reduce(IFn fn){
+	if(count() > 0)
+		return reduceFrom(1, fn, nth(0));
+	return fn.invoke();
+}
+
+public Object reduce(IFn fn, Object start){
+	return reduceFrom(0, fn, start);
+}
+
+//reduces the items from index i on, a head or leaf array at a time
+Object reduceFrom(int i, IFn fn, Object ret){
+	for(; i < head.length; i++)
+		{
+		ret = fn.invoke(ret, head[i]);
+		if(RT.isReduced(ret))
+			return ((IDeref) ret).deref();
+		}
+	i -= head.length;
+	for(int base = i < v.cnt ? v.leafBase(i) : i; i < v.cnt; i = base)
+		{
+		Object[] array = v.arrayFor(i);
+		for(int j = i - base; j < array.length; j++)
+			{
+			ret = fn.invoke(ret, array[j]);
+			if(RT.isReduced(ret))
+				return ((IDeref) ret).deref();
+			}
+		base += array.length;
+		}
+	return ret;
+}
+
+public boolean equiv(Object obj){
+	if(!(obj instanceof Sequential))
+		return false;
+	ISeq ms = RT.seq(obj);
+	for(ISeq s = seq(); s != null; s = s.next(), ms = ms.next())
+		{
+		if(ms == null || !Util.equiv(s.first(), ms.first()))
+			return false;
+		}
+	return ms == null;
+}
+
+public boolean equals(Object obj){
+	if(!(obj instanceof Sequential))
+		return false;
+	ISeq ms = RT.seq(obj);
+	for(ISeq s = seq(); s != null; s = s.next(), ms = ms.next())
+		{
+		if(ms == null || !Util.equals(s.first(), ms.first()))
+			return false;
+		}
+	return ms == null;
+}
+
+public int hashCode(){
+	if(_hash == -1)
+		{
+		int hash = 1;
+		for(Iterator it = iterator(); it.hasNext();)
+			{
+			Object o = it.next();
+			hash = 31 * hash + (o == null ? 0 : o.hashCode());
+			}
+		this._hash = hash;
+		}
+	return _hash;
+}
+
+public int hasheq(){
+	if(_hasheq == -1)
+		_hasheq = Murmur3.hashOrdered(this);
+	return _hasheq;
+}
+
+public ITransientCollection asTransient(){
+	return new TransientDeque(head, v);
+}
+
+//the head from index i, then the chunked seq of the vector
+static class Seq extends ASeq implements IChunkedSeq, Counted{
+	final Object[] head;
+	final int i;
+	final PersistentRRBVector v;
+
+	Seq(Object[] head, int i, PersistentRRBVector v){
+		this.head = head;
+		this.i = i;
+		this.v = v;
+	}
+
+	Seq(IPersistentMap meta, Object[] head, int i, PersistentRRBVector v){
+		super(meta);
+		this.head = head;
+		this.i = i;
+		this.v = v;
+	}
+
+	public Object first(){
+		return head[i];
+	}
+
+	public ISeq next(){
+		if(i + 1 < head.length)
+			return new Seq(head, i + 1, v);
+		return v.seq();
+	}
+
+	public IChunk chunkedFirst(){
+		return new ArrayChunk(head, i);
+	}
+
+	public ISeq chunkedNext(){
+		return v.seq();
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public int count(){
+		return head.length - i + v.cnt;
+	}
+
+	public Seq withMeta(IPersistentMap meta){
+		return new Seq(meta, head, i, v);
+	}
+}
+
+static class RSeq extends ASeq implements Counted{
+	final PersistentDeque d;
+	final int i;
+
+	RSeq(PersistentDeque d, int i){
+		this.d = d;
+		this.i = i;
+	}
+
+	RSeq(IPersistentMap meta, PersistentDeque d, int i){
+		super(meta);
+		this.d = d;
+		this.i = i;
+	}
+
+	public Object first(){
+		return d.nth(i);
+	}
+
+	public ISeq next(){
+		if(i > 0)
+			return new RSeq(d, i - 1);
+		return null;
+	}
+
+	public int count(){
+		return i + 1;
+	}
+
+	public RSeq withMeta(IPersistentMap meta){
+		return new RSeq(meta, d, i);
+	}
+}
+
+/*
+ Items conj'd at the last end collect in a transient vector, added to v
+ by one concat when an operation needs v or the transient is made persistent.
+ */
+static public final class TransientDeque implements ITransientCollection, Counted{
+	Object[] head;
+	PersistentRRBVector v;
+	PersistentVector.TransientVector rear = PersistentVector.EMPTY.asTransient();
+	boolean editable = true;
+
+	TransientDeque(Object[] head, PersistentRRBVector v){
+		this.head = head;
+		this.v = v;
+	}
+
+	void ensureEditable(){
+		if(!editable)
+			throw new IllegalAccessError("Transient used after persistent! call");
+	}
+
+	void flushRear(){
+		if(rear.count() > 0)
+			{
+			v = v.concat(rear.persistent());
+			rear = PersistentVector.EMPTY.asTransient();
+			}
+	}
+
+	public int count(){
+		ensureEditable();
+		return head.length + v.cnt + rear.count();
+	}
+
+	public TransientDeque conj(Object val){
+		return conjLast(val);
+	}
+
+	public TransientDeque conjFirst(Object val){
+		ensureEditable();
+		if(head.length < BRANCH)
+			head = prepend(val, head);
+		else
+			{
+			v = leaf(head).concat(v);
+			head = new Object[]{val};
+			}
+		return this;
+	}
+
+	public TransientDeque conjLast(Object val){
+		ensureEditable();
+		rear = rear.conj(val);
+		return this;
+	}
+
+	public TransientDeque popFirst(){
+		ensureEditable();
+		if(head.length > 0)
+			head = copy(head, 1, head.length);
+		else
+			{
+			flushRear();
+			if(v.cnt == 0)
+				throw new IllegalStateException("Can't pop empty deque");
+			Object[] array = v.arrayFor(0);
+			head = copy(array, 1, array.length);
+			v = v.slice(array.length, v.cnt);
+			}
+		return this;
+	}
+
+	public TransientDeque popLast(){
+		ensureEditable();
+		if(rear.count() > 0)
+			rear = rear.pop();
+		else if(v.cnt > 0)
+			v = v.pop();
+		else if(head.length > 0)
+			head = copy(head, 0, head.length - 1);
+		else
+			throw new IllegalStateException("Can't pop empty deque");
+		return this;
+	}
+
+	public PersistentDeque persistent(){
+		ensureEditable();
+		flushRear();
+		editable = false;
+		return new PersistentDeque(null, head, v);
+	}
+}
+
+public Iterator iterator(){
+	return new Iterator(){
+		private int i = 0;
+		private final Iterator viter = v.iterator();
+
+		public boolean hasNext(){
+			return i < head.length || viter.hasNext();
+		}
+
+		public Object next(){
+			if(i < head.length)
+				return head[i++];
+			else if(viter.hasNext())
+				return viter.next();
+			else
+				throw new NoSuchElementException();
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	};
+}
+
+// java.util.Collection implementation
+
+public Object[] toArray(){
+	return RT.seqToArray(seq());
+}
+
+public boolean add(Object o){
+	throw new UnsupportedOperationException();
+}
+
+public boolean remove(Object o){
+	throw new UnsupportedOperationException();
+}
+
+public boolean addAll(Collection c){
+	throw new UnsupportedOperationException();
+}
+
+public void clear(){
+	throw new UnsupportedOperationException();
+}
+
+public boolean retainAll(Collection c){
+	throw new UnsupportedOperationException();
+}
+
+public boolean removeAll(Collection c){
+	throw new UnsupportedOperationException();
+}
+
+public boolean containsAll(Collection c){
+	for(Object o : c)
+		{
+		if(!contains(o))
+			return false;
+		}
+	return true;
+}
+
+public Object[] toArray(Object[] a){
+	return RT.seqToPassedArray(seq(), a);
+}
+
+public int size(){
+	return count();
+}
+
+public boolean isEmpty(){
+	return count() == 0;
+}
+
+public boolean contains(Object o){
+	for(Iterator it = iterator(); it.hasNext();)
+		{
+		if(Util.equiv(it.next(), o))
+			return true;
+		}
+	return false;
+}
+}
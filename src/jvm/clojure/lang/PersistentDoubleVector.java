@@ -0,0 +1,773 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A PersistentVector of unboxed doubles. The trie has the same 32-way layout as
+ * PersistentVector and reuses its interior Nodes, but leaves and the tail are
+ * double[] so elements are never boxed in storage.
+ */
+public class PersistentDoubleVector extends APersistentVector implements IObj, IEditableCollection, IReduce{
+
+static final class Leaf implements Serializable{
+	transient final AtomicReference<Thread> edit;
+	final double[] array;
+
+	Leaf(AtomicReference<Thread> edit, double[] array){
+		this.edit = edit;
+		this.array = array;
+	}
+}
+
+final int cnt;
+public final int shift;
+public final PersistentVector.Node root;
+public final double[] tail;
+final IPersistentMap _meta;
+
+public final static PersistentDoubleVector EMPTY =
+		new PersistentDoubleVector(0, 5, PersistentVector.EMPTY_NODE, new double[]{});
+
+static public PersistentDoubleVector create(ISeq items){
+	TransientDoubleVector ret = EMPTY.asTransient();
+	for(; items != null; items = items.next())
+		ret = ret.conj(items.first());
+	return ret.persistent();
+}
+
+static public PersistentDoubleVector create(List items){
+	TransientDoubleVector ret = EMPTY.asTransient();
+	for(Object item : items)
+		ret = ret.conj(item);
+	return ret.persistent();
+}
+
+static public PersistentDoubleVector create(double... items){
+	TransientDoubleVector ret = EMPTY.asTransient();
+	for(double item : items)
+		ret = ret.conjDouble(item);
+	return ret.persistent();
+}
+
+PersistentDoubleVector(int cnt, int shift, PersistentVector.Node root, double[] tail){
+	this._meta = null;
+	this.cnt = cnt;
+	this.shift = shift;
+	this.root = root;
+	this.tail = tail;
+}
+
+PersistentDoubleVector(IPersistentMap meta, int cnt, int shift, PersistentVector.Node root, double[] tail){
+	this._meta = meta;
+	this.cnt = cnt;
+	this.shift = shift;
+	this.root = root;
+	this.tail = tail;
+}
+
+public TransientDoubleVector asTransient(){
+	return new TransientDoubleVector(this);
+}
+
+final int tailoff(){
+	if(cnt < 32)
+		return 0;
+	return ((cnt - 1) >>> 5) << 5;
+}
+
+public double[] arrayFor(int i){
+	if(i >= 0 && i < cnt)
+		{
+		if(i >= tailoff())
+			return tail;
+		PersistentVector.Node node = root;
+		for(int level = shift; level > 5; level -= 5)
+			node = (PersistentVector.Node) node.array[(i >>> level) & 0x01f];
+		return ((Leaf) node.array[(i >>> 5) & 0x01f]).array;
+		}
+	throw new IndexOutOfBoundsException();
+}
+
+public double nthDouble(int i){
+	return arrayFor(i)[i & 0x01f];
+}
+
+public Object nth(int i){
+	return nthDouble(i);
+}
+
+public Object nth(int i, Object notFound){
+	if(i >= 0 && i < cnt)
+		return nthDouble(i);
+	return notFound;
+}
+
+public PersistentDoubleVector assocN(int i, Object val){
+	return assocDouble(i, RT.doubleCast(val));
+}
+
+public PersistentDoubleVector assocDouble(int i, double val){
+	if(i >= 0 && i < cnt)
+		{
+		if(i >= tailoff())
+			{
+			double[] newTail = tail.clone();
+			newTail[i & 0x01f] = val;
+			return new PersistentDoubleVector(meta(), cnt, shift, root, newTail);
+			}
+		return new PersistentDoubleVector(meta(), cnt, shift, doAssoc(shift, root, i, val), tail);
+		}
+	if(i == cnt)
+		return consDouble(val);
+	throw new IndexOutOfBoundsException();
+}
+
+private static PersistentVector.Node doAssoc(int level, PersistentVector.Node node, int i, double val){
+	PersistentVector.Node ret = new PersistentVector.Node(node.edit, node.array.clone());
+	int subidx = (i >>> level) & 0x01f;
+	if(level == 5)
+		{
+		Leaf leaf = (Leaf) node.array[subidx];
+		double[] array = leaf.array.clone();
+		array[i & 0x01f] = val;
+		ret.array[subidx] = new Leaf(leaf.edit, array);
+		}
+	else
+		ret.array[subidx] = doAssoc(level - 5, (PersistentVector.Node) node.array[subidx], i, val);
+	return ret;
+}
+
+public int count(){
+	return cnt;
+}
+
+public PersistentDoubleVector withMeta(IPersistentMap meta){
+	return new PersistentDoubleVector(meta, cnt, shift, root, tail);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public PersistentDoubleVector cons(Object val){
+	return consDouble(RT.doubleCast(val));
+}
+
+public PersistentDoubleVector consDouble(double val){
+	//room in tail?
+	if(cnt - tailoff() < 32)
+		{
+		double[] newTail = new double[tail.length + 1];
+		System.arraycopy(tail, 0, newTail, 0, tail.length);
+		newTail[tail.length] = val;
+		return new PersistentDoubleVector(meta(), cnt + 1, shift, root, newTail);
+		}
+	//full tail, push into tree
+	PersistentVector.Node newroot;
+	Leaf tailnode = new Leaf(root.edit, tail);
+	int newshift = shift;
+	//overflow root?
+	if((cnt >>> 5) > (1 << shift))
+		{
+		newroot = new PersistentVector.Node(root.edit);
+		newroot.array[0] = root;
+		newroot.array[1] = newPath(root.edit, shift, tailnode);
+		newshift += 5;
+		}
+	else
+		newroot = pushTail(shift, root, tailnode);
+	return new PersistentDoubleVector(meta(), cnt + 1, newshift, newroot, new double[]{val});
+}
+
+private PersistentVector.Node pushTail(int level, PersistentVector.Node parent, Leaf tailnode){
+	int subidx = ((cnt - 1) >>> level) & 0x01f;
+	PersistentVector.Node ret = new PersistentVector.Node(parent.edit, parent.array.clone());
+	Object nodeToInsert;
+	if(level == 5)
+		{
+		nodeToInsert = tailnode;
+		}
+	else
+		{
+		PersistentVector.Node child = (PersistentVector.Node) parent.array[subidx];
+		nodeToInsert = (child != null) ?
+		               pushTail(level - 5, child, tailnode)
+		                               : newPath(root.edit, level - 5, tailnode);
+		}
+	ret.array[subidx] = nodeToInsert;
+	return ret;
+}
+
+private static Object newPath(AtomicReference<Thread> edit, int level, Leaf leaf){
+	if(level == 0)
+		return leaf;
+	PersistentVector.Node ret = new PersistentVector.Node(edit);
+	ret.array[0] = newPath(edit, level - 5, leaf);
+	return ret;
+}
+
+public PersistentDoubleVector pop(){
+	if(cnt == 0)
+		throw new IllegalStateException("Can't pop empty vector");
+	if(cnt == 1)
+		return EMPTY.withMeta(meta());
+	if(cnt - tailoff() > 1)
+		{
+		double[] newTail = new double[tail.length - 1];
+		System.arraycopy(tail, 0, newTail, 0, newTail.length);
+		return new PersistentDoubleVector(meta(), cnt - 1, shift, root, newTail);
+		}
+	double[] newtail = arrayFor(cnt - 2);
+
+	PersistentVector.Node newroot = popTail(shift, root);
+	int newshift = shift;
+	if(newroot == null)
+		{
+		newroot = PersistentVector.EMPTY_NODE;
+		}
+	if(shift > 5 && newroot.array[1] == null)
+		{
+		newroot = (PersistentVector.Node) newroot.array[0];
+		newshift -= 5;
+		}
+	return new PersistentDoubleVector(meta(), cnt - 1, newshift, newroot, newtail);
+}
+
+private PersistentVector.Node popTail(int level, PersistentVector.Node node){
+	int subidx = ((cnt - 2) >>> level) & 0x01f;
+	if(level > 5)
+		{
+		PersistentVector.Node newchild = popTail(level - 5, (PersistentVector.Node) node.array[subidx]);
+		if(newchild == null && subidx == 0)
+			return null;
+		else
+			{
+			PersistentVector.Node ret = new PersistentVector.Node(root.edit, node.array.clone());
+			ret.array[subidx] = newchild;
+			return ret;
+			}
+		}
+	else if(subidx == 0)
+		return null;
+	else
+		{
+		PersistentVector.Node ret = new PersistentVector.Node(root.edit, node.array.clone());
+		ret.array[subidx] = null;
+		return ret;
+		}
+}
+
+public IPersistentCollection empty(){
+	return EMPTY.withMeta(meta());
+}
+
+public IChunkedSeq chunkedSeq(){
+	if(count() == 0)
+		return null;
+	return new ChunkedSeq(this, 0, 0);
+}
+
+public ISeq seq(){
+	return chunkedSeq();
+}
+
+@Override
+Iterator rangedIterator(final int start, final int end){
+	return new Iterator(){
+		int i = start;
+		int base = i - (i % 32);
+		double[] array = (start < count()) ? arrayFor(i) : null;
+
+		public boolean hasNext(){
+			return i < end;
+		}
+
+		public Object next(){
+			if(i - base == 32)
+				{
+				array = arrayFor(i);
+				base += 32;
+				}
+			return array[i++ & 0x01f];
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	};
+}
+
+public Iterator iterator(){
+	return rangedIterator(0, count());
+}
+
+public Object reduce(IFn f){
+	if(cnt == 0)
+		return f.invoke();
+	return reduce(f, nthDouble(0), 1);
+}
+
+public Object reduce(IFn f, Object init){
+	return reduce(f, init, 0);
+}
+
+private Object reduce(IFn f, Object init, int start){
+	IFn.ODO pf = (f instanceof IFn.ODO) ? (IFn.ODO) f : null;
+	for(int i = start - (start % 32); i < cnt; i += 32)
+		{
+		double[] array = arrayFor(i);
+		for(int j = (i < start) ? start - i : 0; j < array.length; ++j)
+			{
+			init = (pf != null) ? pf.invokePrim(init, array[j]) : f.invoke(init, array[j]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		}
+	return init;
+}
+
+/**
+ * Fully unboxed reduction. Reduced is not supported since the accumulator
+ * is a primitive.
+ */
+public double reduceDouble(IFn.DDD f, double init){
+	for(int i = 0; i < cnt; i += 32)
+		{
+		double[] array = arrayFor(i);
+		for(int j = 0; j < array.length; ++j)
+			init = f.invokePrim(init, array[j]);
+		}
+	return init;
+}
+
+public Object kvreduce(IFn f, Object init){
+	IFn.OLDO pf = (f instanceof IFn.OLDO) ? (IFn.OLDO) f : null;
+	for(int i = 0; i < cnt; i += 32)
+		{
+		double[] array = arrayFor(i);
+		for(int j = 0; j < array.length; ++j)
+			{
+			init = (pf != null) ? pf.invokePrim(init, i + j, array[j]) : f.invoke(init, i + j, array[j]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		}
+	return init;
+}
+
+static final class Chunk implements IChunk, Serializable{
+	final double[] array;
+	final int off;
+	final int end;
+
+	Chunk(double[] array, int off, int end){
+		this.array = array;
+		this.off = off;
+		this.end = end;
+	}
+
+	public Object nth(int i){
+		return array[off + i];
+	}
+
+	public Object nth(int i, Object notFound){
+		if(i >= 0 && i < count())
+			return nth(i);
+		return notFound;
+	}
+
+	public int count(){
+		return end - off;
+	}
+
+	public IChunk dropFirst(){
+		if(off == end)
+			throw new IllegalStateException("dropFirst of empty chunk");
+		return new Chunk(array, off + 1, end);
+	}
+
+	public Object reduce(IFn f, Object start){
+		IFn.ODO pf = (f instanceof IFn.ODO) ? (IFn.ODO) f : null;
+		Object ret = start;
+		for(int x = off; x < end; x++)
+			{
+			ret = (pf != null) ? pf.invokePrim(ret, array[x]) : f.invoke(ret, array[x]);
+			if(RT.isReduced(ret))
+				return ret;
+			}
+		return ret;
+	}
+}
+
+static public final class ChunkedSeq extends ASeq implements IChunkedSeq, Counted{
+
+	public final PersistentDoubleVector vec;
+	final double[] node;
+	final int i;
+	public final int offset;
+
+	public ChunkedSeq(PersistentDoubleVector vec, int i, int offset){
+		this.vec = vec;
+		this.i = i;
+		this.offset = offset;
+		this.node = vec.arrayFor(i);
+	}
+
+	ChunkedSeq(IPersistentMap meta, PersistentDoubleVector vec, double[] node, int i, int offset){
+		super(meta);
+		this.vec = vec;
+		this.node = node;
+		this.i = i;
+		this.offset = offset;
+	}
+
+	ChunkedSeq(PersistentDoubleVector vec, double[] node, int i, int offset){
+		this.vec = vec;
+		this.node = node;
+		this.i = i;
+		this.offset = offset;
+	}
+
+	public IChunk chunkedFirst(){
+		return new Chunk(node, offset, node.length);
+	}
+
+	public ISeq chunkedNext(){
+		if(i + node.length < vec.cnt)
+			return new ChunkedSeq(vec, i + node.length, 0);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Obj withMeta(IPersistentMap meta){
+		if(meta == this._meta)
+			return this;
+		return new ChunkedSeq(meta, vec, node, i, offset);
+	}
+
+	public Object first(){
+		return node[offset];
+	}
+
+	public ISeq next(){
+		if(offset + 1 < node.length)
+			return new ChunkedSeq(vec, node, i, offset + 1);
+		return chunkedNext();
+	}
+
+	public int count(){
+		return vec.cnt - (i + offset);
+	}
+}
+
+static public final class TransientDoubleVector extends AFn implements ITransientVector, Counted{
+	int cnt;
+	int shift;
+	PersistentVector.Node root;
+	double[] tail;
+
+	TransientDoubleVector(int cnt, int shift, PersistentVector.Node root, double[] tail){
+		this.cnt = cnt;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	TransientDoubleVector(PersistentDoubleVector v){
+		this(v.cnt, v.shift, editableRoot(v.root), editableTail(v.tail));
+	}
+
+	public int count(){
+		ensureEditable();
+		return cnt;
+	}
+
+	PersistentVector.Node ensureEditable(PersistentVector.Node node){
+		if(node.edit == root.edit)
+			return node;
+		return new PersistentVector.Node(root.edit, node.array.clone());
+	}
+
+	Leaf ensureEditable(Leaf leaf){
+		if(leaf.edit == root.edit)
+			return leaf;
+		return new Leaf(root.edit, leaf.array.clone());
+	}
+
+	void ensureEditable(){
+		Thread owner = root.edit.get();
+		if(owner == Thread.currentThread())
+			return;
+		if(owner != null)
+			throw new IllegalAccessError("Transient used by non-owner thread");
+		throw new IllegalAccessError("Transient used after persistent! call");
+	}
+
+	static PersistentVector.Node editableRoot(PersistentVector.Node node){
+		return new PersistentVector.Node(new AtomicReference<Thread>(Thread.currentThread()), node.array.clone());
+	}
+
+	static double[] editableTail(double[] tl){
+		double[] ret = new double[32];
+		System.arraycopy(tl, 0, ret, 0, tl.length);
+		return ret;
+	}
+
+	public PersistentDoubleVector persistent(){
+		ensureEditable();
+		root.edit.set(null);
+		double[] trimmedTail = new double[cnt - tailoff()];
+		System.arraycopy(tail, 0, trimmedTail, 0, trimmedTail.length);
+		return new PersistentDoubleVector(cnt, shift, root, trimmedTail);
+	}
+
+	public TransientDoubleVector conj(Object val){
+		return conjDouble(RT.doubleCast(val));
+	}
+
+	public TransientDoubleVector conjDouble(double val){
+		ensureEditable();
+		int i = cnt;
+		//room in tail?
+		if(i - tailoff() < 32)
+			{
+			tail[i & 0x01f] = val;
+			++cnt;
+			return this;
+			}
+		//full tail, push into tree
+		PersistentVector.Node newroot;
+		Leaf tailnode = new Leaf(root.edit, tail);
+		tail = new double[32];
+		tail[0] = val;
+		int newshift = shift;
+		//overflow root?
+		if((cnt >>> 5) > (1 << shift))
+			{
+			newroot = new PersistentVector.Node(root.edit);
+			newroot.array[0] = root;
+			newroot.array[1] = newPath(root.edit, shift, tailnode);
+			newshift += 5;
+			}
+		else
+			newroot = pushTail(shift, root, tailnode);
+		root = newroot;
+		shift = newshift;
+		++cnt;
+		return this;
+	}
+
+	private PersistentVector.Node pushTail(int level, PersistentVector.Node parent, Leaf tailnode){
+		parent = ensureEditable(parent);
+		int subidx = ((cnt - 1) >>> level) & 0x01f;
+		Object nodeToInsert;
+		if(level == 5)
+			{
+			nodeToInsert = tailnode;
+			}
+		else
+			{
+			PersistentVector.Node child = (PersistentVector.Node) parent.array[subidx];
+			nodeToInsert = (child != null) ?
+			               pushTail(level - 5, child, tailnode)
+			                               : newPath(root.edit, level - 5, tailnode);
+			}
+		parent.array[subidx] = nodeToInsert;
+		return parent;
+	}
+
+	final private int tailoff(){
+		if(cnt < 32)
+			return 0;
+		return ((cnt - 1) >>> 5) << 5;
+	}
+
+	private double[] arrayFor(int i){
+		if(i >= 0 && i < cnt)
+			{
+			if(i >= tailoff())
+				return tail;
+			PersistentVector.Node node = root;
+			for(int level = shift; level > 5; level -= 5)
+				node = (PersistentVector.Node) node.array[(i >>> level) & 0x01f];
+			return ((Leaf) node.array[(i >>> 5) & 0x01f]).array;
+			}
+		throw new IndexOutOfBoundsException();
+	}
+
+	private double[] editableArrayFor(int i){
+		if(i >= 0 && i < cnt)
+			{
+			if(i >= tailoff())
+				return tail;
+			PersistentVector.Node node = root;
+			for(int level = shift; level > 5; level -= 5)
+				node = ensureEditable((PersistentVector.Node) node.array[(i >>> level) & 0x01f]);
+			return ensureEditable((Leaf) node.array[(i >>> 5) & 0x01f]).array;
+			}
+		throw new IndexOutOfBoundsException();
+	}
+
+	public Object valAt(Object key){
+		//note - relies on ensureEditable in 2-arg valAt
+		return valAt(key, null);
+	}
+
+	public Object valAt(Object key, Object notFound){
+		ensureEditable();
+		if(Util.isInteger(key))
+			{
+			int i = ((Number) key).intValue();
+			if(i >= 0 && i < cnt)
+				return nth(i);
+			}
+		return notFound;
+	}
+
+	public Object invoke(Object arg1){
+		//note - relies on ensureEditable in nth
+		if(Util.isInteger(arg1))
+			return nth(((Number) arg1).intValue());
+		throw new IllegalArgumentException("Key must be integer");
+	}
+
+	public double nthDouble(int i){
+		ensureEditable();
+		return arrayFor(i)[i & 0x01f];
+	}
+
+	public Object nth(int i){
+		return nthDouble(i);
+	}
+
+	public Object nth(int i, Object notFound){
+		if(i >= 0 && i < count())
+			return nth(i);
+		return notFound;
+	}
+
+	public TransientDoubleVector assocN(int i, Object val){
+		return assocDouble(i, RT.doubleCast(val));
+	}
+
+	public TransientDoubleVector assocDouble(int i, double val){
+		ensureEditable();
+		if(i >= 0 && i < cnt)
+			{
+			if(i >= tailoff())
+				{
+				tail[i & 0x01f] = val;
+				return this;
+				}
+			root = doAssoc(shift, root, i, val);
+			return this;
+			}
+		if(i == cnt)
+			return conjDouble(val);
+		throw new IndexOutOfBoundsException();
+	}
+
+	public TransientDoubleVector assoc(Object key, Object val){
+		//note - relies on ensureEditable in assocN
+		if(Util.isInteger(key))
+			{
+			int i = ((Number) key).intValue();
+			return assocN(i, val);
+			}
+		throw new IllegalArgumentException("Key must be integer");
+	}
+
+	private PersistentVector.Node doAssoc(int level, PersistentVector.Node node, int i, double val){
+		node = ensureEditable(node);
+		int subidx = (i >>> level) & 0x01f;
+		if(level == 5)
+			{
+			Leaf leaf = ensureEditable((Leaf) node.array[subidx]);
+			leaf.array[i & 0x01f] = val;
+			node.array[subidx] = leaf;
+			}
+		else
+			node.array[subidx] = doAssoc(level - 5, (PersistentVector.Node) node.array[subidx], i, val);
+		return node;
+	}
+
+	public TransientDoubleVector pop(){
+		ensureEditable();
+		if(cnt == 0)
+			throw new IllegalStateException("Can't pop empty vector");
+		if(cnt == 1)
+			{
+			cnt = 0;
+			return this;
+			}
+		int i = cnt - 1;
+		//pop in tail?
+		if((i & 0x01f) > 0)
+			{
+			--cnt;
+			return this;
+			}
+
+		double[] newtail = editableArrayFor(cnt - 2);
+
+		PersistentVector.Node newroot = popTail(shift, root);
+		int newshift = shift;
+		if(newroot == null)
+			{
+			newroot = new PersistentVector.Node(root.edit);
+			}
+		if(shift > 5 && newroot.array[1] == null)
+			{
+			newroot = ensureEditable((PersistentVector.Node) newroot.array[0]);
+			newshift -= 5;
+			}
+		root = newroot;
+		shift = newshift;
+		--cnt;
+		tail = newtail;
+		return this;
+	}
+
+	private PersistentVector.Node popTail(int level, PersistentVector.Node node){
+		node = ensureEditable(node);
+		int subidx = ((cnt - 2) >>> level) & 0x01f;
+		if(level > 5)
+			{
+			PersistentVector.Node newchild = popTail(level - 5, (PersistentVector.Node) node.array[subidx]);
+			if(newchild == null && subidx == 0)
+				return null;
+			else
+				{
+				node.array[subidx] = newchild;
+				return node;
+				}
+			}
+		else if(subidx == 0)
+			return null;
+		else
+			{
+			node.array[subidx] = null;
+			return node;
+			}
+	}
+}
+}
@@ -25,7 +25,7 @@ import java.util.concurrent.atomic.AtomicReference;
  Any errors are my own
  */
 
-public class PersistentHashMap extends APersistentMap implements IEditableCollection, IObj {
+public class PersistentHashMap extends APersistentMap implements IEditableCollection, IObj, IMapIterable {
 
 final int count;
 final INode root;
@@ -100,6 +100,231 @@ public static PersistentHashMap create(IPersistentMap meta, Object... init){
 	return create(init).withMeta(meta);
 }
 
+/*
+ * Builds the trie bottom-up in one pass instead of assoc'ing key by key.
+ * Entries are sorted on their hashes with the 5-bit trie indexes taken lowest
+ * level first, which makes every subtree a contiguous run of the sorted
+ * entries, in the order its node lays them out. Later duplicates win, as with assoc.
+ * @param init {key1,val1,key2,val2,...}
+ */
+static public PersistentHashMap createBulk(Object... init){
+	return createBulk(init, init.length);
+}
+
+static public PersistentHashMap createBulk(Iterable entries){
+	Object[] kvs = pairs(entries);
+	return createBulk(kvs, kvs.length);
+}
+
+//{key1,val1,key2,val2,...} of the map entries, pair vectors and maps in entries, as conj takes them
+static private Object[] pairs(Iterable entries){
+	Object[] kvs = new Object[32];
+	int len = 0;
+	for(Object o : entries)
+		{
+		if(o instanceof Map.Entry)
+			{
+			Map.Entry e = (Map.Entry) o;
+			kvs = addPair(kvs, len, e.getKey(), e.getValue());
+			len += 2;
+			}
+		else if(o instanceof IPersistentVector)
+			{
+			IPersistentVector v = (IPersistentVector) o;
+			if(v.count() != 2)
+				throw new IllegalArgumentException("Vector arg to map conj must be a pair");
+			kvs = addPair(kvs, len, v.nth(0), v.nth(1));
+			len += 2;
+			}
+		else
+			{
+			for(ISeq es = RT.seq(o); es != null; es = es.next())
+				{
+				Map.Entry e = (Map.Entry) es.first();
+				kvs = addPair(kvs, len, e.getKey(), e.getValue());
+				len += 2;
+				}
+			}
+		}
+	return Arrays.copyOf(kvs, len);
+}
+
+/*
+ * Conj's entries onto the empty array or hash map empty. Results small enough
+ * for array or compact maps are built as by assoc when empty is an array map,
+ * see createSized, the rest with createBulk. Used by into.
+ */
+static public IPersistentMap intoEmpty(IPersistentMap empty, Iterable entries){
+	IPersistentMap meta = RT.meta(empty);
+	Object[] kvs = pairs(entries);
+	IPersistentMap m = empty instanceof PersistentArrayMap ? createSized(kvs, kvs.length) : createBulk(kvs, kvs.length);
+	return (IPersistentMap) ((IObj) m).withMeta(meta);
+}
+
+/*
+ * A map of {key1,val1,...} up to len, later duplicates winning: an array or
+ * compact map if there are few enough distinct keys for one, else built with
+ * createBulk.
+ */
+static public IPersistentMap createSized(Object[] kvs, int len){
+	if(len % 2 != 0)
+		throw new IllegalArgumentException(String.format("No value supplied for key: %s", kvs[len - 1]));
+	if(len / 2 > PersistentCompactMap.MAX_ENTRIES)
+		{
+		PersistentHashMap m = createBulk(kvs, len);
+		if(m.count > PersistentCompactMap.MAX_ENTRIES)
+			return m;
+		}
+	ITransientMap ret = PersistentArrayMap.EMPTY.asTransient();
+	for(int i = 0; i < len; i += 2)
+		ret = ret.assoc(kvs[i], kvs[i + 1]);
+	return ret.persistent();
+}
+
+static private Object[] addPair(Object[] kvs, int len, Object key, Object val){
+	if(len == kvs.length)
+		{
+		Object[] grown = new Object[len * 2];
+		System.arraycopy(kvs, 0, grown, 0, len);
+		kvs = grown;
+		}
+	kvs[len] = key;
+	kvs[len + 1] = val;
+	return kvs;
+}
+
+static private PersistentHashMap createBulk(Object[] kvs, int len){
+	if(len % 2 != 0)
+		throw new IllegalArgumentException(String.format("No value supplied for key: %s", kvs[len - 1]));
+	int n = len / 2;
+	boolean hasNull = false;
+	Object nullValue = null;
+	int[] hashes = new int[n];
+	long[] order = new long[n];
+	int m = 0;
+	for(int i = 0; i < n; i++)
+		{
+		Object key = kvs[2 * i];
+		if(key == null)
+			{
+			hasNull = true;
+			nullValue = kvs[2 * i + 1];
+			continue;
+			}
+		int h = hash(key);
+		hashes[i] = h;
+		//index in the low bits keeps equal hashes in insertion order
+		order[m++] = ((trieOrder(h) & 0xffffffffL) << 31) | i;
+		}
+	Arrays.sort(order, 0, m);
+	BulkBuilder b = new BulkBuilder(kvs, hashes, order);
+	INode root = m > 0 ? b.build(0, m, 0) : null;
+	return new PersistentHashMap(b.count + (hasNull ? 1 : 0), root, hasNull, nullValue);
+}
+
+static private int trieOrder(int hash){
+	int k = 0;
+	for(int shift = 0; shift < 30; shift += 5)
+		k = (k << 5) | mask(hash, shift);
+	return (k << 2) | (hash >>> 30);
+}
+
+static final class BulkBuilder{
+	final Object[] kvs;
+	final int[] hashes;
+	final long[] order;
+	int count;
+
+	BulkBuilder(Object[] kvs, int[] hashes, long[] order){
+		this.kvs = kvs;
+		this.hashes = hashes;
+		this.order = order;
+	}
+
+	int index(int pos){
+		return (int) (order[pos] & 0x7fffffff);
+	}
+
+	int hashAt(int pos){
+		return hashes[index(pos)];
+	}
+
+	//entries in [lo,hi) share their hash bits below shift
+	INode build(int lo, int hi, int shift){
+		int groups = 0;
+		for(int pos = lo; pos < hi; groups++)
+			pos = groupEnd(pos, hi, shift);
+		if(groups > 16)
+			{
+			INode[] array = new INode[32];
+			for(int pos = lo; pos < hi;)
+				{
+				int end = groupEnd(pos, hi, shift);
+				int h = hashAt(pos);
+				Object[] kv = child(pos, end, shift);
+				array[mask(h, shift)] = kv[0] == null ? (INode) kv[1]
+				                        : new BitmapIndexedNode(null, bitpos(h, shift + 5), kv);
+				pos = end;
+				}
+			return new ArrayNode(null, groups, array);
+			}
+		int bitmap = 0;
+		Object[] array = new Object[2 * groups];
+		int j = 0;
+		for(int pos = lo; pos < hi;)
+			{
+			int end = groupEnd(pos, hi, shift);
+			Object[] kv = child(pos, end, shift);
+			bitmap |= bitpos(hashAt(pos), shift);
+			array[j++] = kv[0];
+			array[j++] = kv[1];
+			pos = end;
+			}
+		return new BitmapIndexedNode(null, bitmap, array);
+	}
+
+	int groupEnd(int pos, int hi, int shift){
+		int idx = mask(hashAt(pos), shift);
+		int end = pos + 1;
+		while(end < hi && mask(hashAt(end), shift) == idx)
+			end++;
+		return end;
+	}
+
+	//returns {key, val} for a lone entry, {null, node} otherwise
+	Object[] child(int lo, int hi, int shift){
+		int h = hashAt(lo);
+		boolean sameHash = true;
+		for(int pos = lo + 1; pos < hi && sameHash; pos++)
+			sameHash = hashAt(pos) == h;
+		if(!sameHash)
+			return new Object[]{null, build(lo, hi, shift + 5)};
+		//same full hash: drop duplicate keys, keeping the latest value
+		Object[] array = new Object[2 * (hi - lo)];
+		int len = 0;
+		for(int pos = lo; pos < hi; pos++)
+			{
+			int i = index(pos);
+			Object key = kvs[2 * i];
+			int k = 0;
+			while(k < len && !Util.equiv(key, array[k]))
+				k += 2;
+			if(k == len)
+				{
+				array[len] = key;
+				len += 2;
+				}
+			array[k + 1] = kvs[2 * i + 1];
+			}
+		count += len / 2;
+		if(len == 2)
+			return array.length == 2 ? array : new Object[]{array[0], array[1]};
+		Object[] trimmed = new Object[len];
+		System.arraycopy(array, 0, trimmed, 0, len);
+		return new Object[]{null, new HashCollisionNode(null, h, len / 2, trimmed)};
+	}
+}
+
 PersistentHashMap(int count, INode root, boolean hasNull, Object nullValue){
 	this.count = count;
 	this.root = root;
@@ -174,7 +399,15 @@ public IPersistentMap without(Object key){
 }
 
 public Iterator iterator(){
-	return new SeqIterator(seq());
+	return new NodeIterator(root, hasNull, nullValue, NodeIterator.ENTRIES);
+}
+
+public Iterator keyIterator(){
+	return new NodeIterator(root, hasNull, nullValue, NodeIterator.KEYS);
+}
+
+public Iterator valIterator(){
+	return new NodeIterator(root, hasNull, nullValue, NodeIterator.VALS);
 }
 
 public Object kvreduce(IFn f, Object init){
@@ -191,14 +424,13 @@ public Object kvreduce(IFn f, Object init){
 	return init;
 }
 
-public Object fold(long n, final IFn combinef, final IFn reducef,
+public Object fold(final long n, final IFn combinef, final IFn reducef,
                    IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
-	//we are ignoring n for now
 	Callable top = new Callable(){
 		public Object call() throws Exception{
 			Object ret = combinef.invoke();
 			if(root != null)
-				ret = combinef.invoke(ret, root.fold(combinef,reducef,fjtask,fjfork,fjjoin));
+				ret = combinef.invoke(ret, root.fold(n,hasNull?count-1:count,combinef,reducef,fjtask,fjfork,fjjoin));
 			return hasNull?
 			       combinef.invoke(ret,reducef.invoke(combinef.invoke(),null,nullValue))
 			       :ret;
@@ -207,6 +439,94 @@ public Object fold(long n, final IFn combinef, final IFn reducef,
 	return fjinvoke.invoke(top);
 }
 
+/*
+ * Folds the children of a node. array holds either INodes (pairs false) or
+ * interleaved key/val-or-node pairs (pairs true). Subtree sizes are estimated
+ * by spreading est evenly over the child nodes. Runs of children whose
+ * estimates sum to at most n are reduced serially as one task; larger child
+ * nodes are split further.
+ */
+static Object foldArray(final Object[] array, final boolean pairs, final long n, long est,
+                        final IFn combinef, final IFn reducef,
+                        final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	int step = pairs ? 2 : 1;
+	int entries = 0, nodes = 0;
+	for(int i = 0; i < array.length; i += step)
+		{
+		if(pairs && array[i] != null)
+			++entries;
+		else if(array[pairs ? i + 1 : i] != null)
+			++nodes;
+		}
+	long nodeEst = nodes > 0 ? Math.max(1, (est - entries) / nodes) : 0;
+
+	List<Callable> tasks = new ArrayList<Callable>();
+	int batchStart = -1;
+	long batchEst = 0;
+	for(int i = 0; i < array.length; i += step)
+		{
+		Object key = pairs ? array[i] : null;
+		Object valOrNode = pairs ? array[i + 1] : array[i];
+		if(key == null && valOrNode == null)
+			continue;
+		long pieceEst = (key != null) ? 1 : nodeEst;
+		if((key == null && pieceEst > n) || (batchStart >= 0 && batchEst + pieceEst > n))
+			{
+			if(batchStart >= 0)
+				tasks.add(reduceTask(array, pairs, batchStart, i, combinef, reducef));
+			batchStart = -1;
+			batchEst = 0;
+			}
+		if(key == null && pieceEst > n)
+			{
+			final INode node = (INode) valOrNode;
+			final long nest = pieceEst;
+			tasks.add(new Callable(){
+				public Object call() throws Exception{
+					return node.fold(n, nest, combinef, reducef, fjtask, fjfork, fjjoin);
+				}
+			});
+			continue;
+			}
+		if(batchStart < 0)
+			batchStart = i;
+		batchEst += pieceEst;
+		}
+	if(batchStart >= 0)
+		tasks.add(reduceTask(array, pairs, batchStart, array.length, combinef, reducef));
+	return ArrayNode.foldTasks(tasks, combinef, fjtask, fjfork, fjjoin);
+}
+
+static private Callable reduceTask(final Object[] array, final boolean pairs, final int start, final int end,
+                                   final IFn combinef, final IFn reducef){
+	return new Callable(){
+		public Object call() throws Exception{
+			Object ret = combinef.invoke();
+			for(int i = start; i < end; i += pairs ? 2 : 1)
+				{
+				if(pairs && array[i] != null)
+					ret = reducef.invoke(ret, array[i], array[i + 1]);
+				else
+					{
+					INode node = (INode) array[pairs ? i + 1 : i];
+					if(node != null)
+						ret = node.kvreduce(reducef, ret);
+					}
+				if(RT.isReduced(ret))
+					return ((IDeref) ret).deref();
+				}
+			return ret;
+		}
+	};
+}
+
+static private Object foldSerially(INode node, IFn combinef, IFn reducef){
+	Object ret = node.kvreduce(reducef, combinef.invoke());
+	if(RT.isReduced(ret))
+		return ((IDeref) ret).deref();
+	return ret;
+}
+
 public int count(){
 	return count;
 }
@@ -343,7 +663,8 @@ static interface INode extends Serializable {
 
     public Object kvreduce(IFn f, Object init);
 
-	Object fold(IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin);
+	//est is the estimated number of entries below this node
+	Object fold(long n, long est, IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin);
 }
 
 final static class ArrayNode implements INode{
@@ -415,20 +736,11 @@ final static class ArrayNode implements INode{
         return init;
     }
 
-	public Object fold(final IFn combinef, final IFn reducef,
+	public Object fold(long n, long est, final IFn combinef, final IFn reducef,
 	                   final IFn fjtask, final IFn fjfork, final IFn fjjoin){
-		List<Callable> tasks = new ArrayList();
-		for(final INode node : array){
-			if(node != null){
-				tasks.add(new Callable(){
-					public Object call() throws Exception{
-						return node.fold(combinef, reducef, fjtask, fjfork, fjjoin);
-					}
-				});
-				}
-			}
-
-		return foldTasks(tasks,combinef,fjtask,fjfork,fjjoin);
+		if(est <= n)
+			return foldSerially(this, combinef, reducef);
+		return foldArray(array, false, n, est, combinef, reducef, fjtask, fjfork, fjjoin);
 		}
 
 	static public Object foldTasks(List<Callable> tasks, final IFn combinef,
@@ -695,8 +1007,10 @@ final static class BitmapIndexedNode implements INode{
          return NodeSeq.kvreduce(array,f,init);
     }
 
-	public Object fold(IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin){
-		return NodeSeq.kvreduce(array, reducef, combinef.invoke());
+	public Object fold(long n, long est, IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin){
+		if(est <= n)
+			return foldSerially(this, combinef, reducef);
+		return foldArray(array, true, n, est, combinef, reducef, fjtask, fjfork, fjjoin);
 	}
 
 	private BitmapIndexedNode ensureEditable(AtomicReference<Thread> edit){
@@ -887,8 +1201,8 @@ final static class HashCollisionNode implements INode{
          return NodeSeq.kvreduce(array,f,init);
     }
 
-	public Object fold(IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin){
-		return NodeSeq.kvreduce(array, reducef, combinef.invoke());
+	public Object fold(long n, long est, IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin){
+		return foldSerially(this, combinef, reducef);
 	}
 
 	public int findIndex(Object key){
@@ -1111,6 +1425,104 @@ private static int bitpos(int hash, int shift){
 	return 1 << mask(hash, shift);
 }
 
+/*
+ Walks the node arrays directly, keeping one frame per trie level plus one for
+ a collision node, so only the MapEntry of an entry iteration is allocated
+ */
+static final class NodeIterator implements Iterator{
+	static final int ENTRIES = 0;
+	static final int KEYS = 1;
+	static final int VALS = 2;
+
+	final Object[][] arrays = new Object[8][];
+	final int[] index = new int[8];
+	final int mode;
+	int depth = -1;
+	boolean ready;
+	Object key;
+	Object val;
+
+	NodeIterator(INode root, boolean hasNull, Object nullValue, int mode){
+		this.mode = mode;
+		if(root != null)
+			push(root);
+		if(hasNull)
+			{
+			ready = true;
+			val = nullValue;
+			}
+		else
+			ready = advance();
+	}
+
+	void push(INode node){
+		depth++;
+		if(node instanceof ArrayNode)
+			arrays[depth] = ((ArrayNode) node).array;
+		else if(node instanceof BitmapIndexedNode)
+			arrays[depth] = ((BitmapIndexedNode) node).array;
+		else
+			arrays[depth] = ((HashCollisionNode) node).array;
+		index[depth] = 0;
+	}
+
+	//ArrayNode arrays hold children, the others key/val pairs or null/child
+	boolean advance(){
+		while(depth >= 0)
+			{
+			Object[] array = arrays[depth];
+			int i = index[depth];
+			if(i >= array.length)
+				{
+				arrays[depth--] = null;
+				continue;
+				}
+			if(array instanceof INode[])
+				{
+				index[depth] = i + 1;
+				if(array[i] != null)
+					push((INode) array[i]);
+				}
+			else
+				{
+				index[depth] = i + 2;
+				if(array[i] != null)
+					{
+					key = array[i];
+					val = array[i + 1];
+					return true;
+					}
+				if(array[i + 1] != null)
+					push((INode) array[i + 1]);
+				}
+			}
+		return false;
+	}
+
+	public boolean hasNext(){
+		return ready;
+	}
+
+	public Object next(){
+		if(!ready)
+			throw new NoSuchElementException();
+		Object ret;
+		if(mode == KEYS)
+			ret = key;
+		else if(mode == VALS)
+			ret = val;
+		else
+			ret = new MapEntry(key, val);
+		key = val = null;
+		ready = advance();
+		return ret;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+
 static final class NodeSeq extends ASeq {
 	final Object[] array;
 	final int i;
@@ -12,6 +12,7 @@ package clojure.lang;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 //import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
@@ -21,7 +22,7 @@ import java.util.Iterator;
  * so no reversing or suspensions required for persistent use
  */
 
-public class PersistentQueue extends Obj implements IPersistentList, Collection, Counted, IHashEq{
+public class PersistentQueue extends Obj implements IPersistentList, Collection, Counted, IHashEq, IReduce{
 
 final public static PersistentQueue EMPTY = new PersistentQueue(null, 0, null, null);
 
@@ -138,7 +139,53 @@ public PersistentQueue withMeta(IPersistentMap meta){
 	return new PersistentQueue(meta, cnt, f, r);
 }
 
-static class Seq extends ASeq{
+public Object reduce(IFn fn){
+	if(f == null)
+		return fn.invoke();
+	return reduce(fn, f.first(), f.next());
+}
+
+public Object reduce(IFn fn, Object start){
+	return reduce(fn, start, f);
+}
+
+private Object reduce(IFn fn, Object start, ISeq front){
+	Object ret = reduceSeq(front, fn, start);
+	if(RT.isReduced(ret))
+		return ((IDeref) ret).deref();
+	if(r != null)
+		return r.reduceRange(0, r.cnt, fn, ret);
+	return ret;
+}
+
+//walks a chunk at a time where it can, leaving reduced values for the caller to deref
+static Object reduceSeq(ISeq s, IFn fn, Object ret){
+	while(s != null)
+		{
+		if(s instanceof IChunkedSeq)
+			{
+			IChunkedSeq cs = (IChunkedSeq) s;
+			ret = cs.chunkedFirst().reduce(fn, ret);
+			if(RT.isReduced(ret))
+				return ret;
+			s = cs.chunkedNext();
+			}
+		else
+			{
+			ret = fn.invoke(ret, s.first());
+			if(RT.isReduced(ret))
+				return ret;
+			s = s.next();
+			}
+		}
+	return ret;
+}
+
+/*
+ The front is a list of one item or a chunked seq on a former rear vector, and
+ the rest a chunked seq on the rear vector, which is where chunkedNext hands off.
+ */
+static class Seq extends ASeq implements IChunkedSeq, IReduce{
 	final ISeq f;
 	final ISeq rseq;
 
@@ -174,6 +221,43 @@ static class Seq extends ASeq{
 		return RT.count(f) + RT.count(rseq);
 	}
 
+	public IChunk chunkedFirst(){
+		if(f instanceof IChunkedSeq)
+			return ((IChunkedSeq) f).chunkedFirst();
+		return new ArrayChunk(new Object[]{f.first()});
+	}
+
+	public ISeq chunkedNext(){
+		ISeq f1 = (f instanceof IChunkedSeq) ? ((IChunkedSeq) f).chunkedNext() : f.next();
+		if(f1 == null)
+			return rseq;
+		return new Seq(f1, rseq);
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Object reduce(IFn fn){
+		return reduce(fn, f.first(), f.next());
+	}
+
+	public Object reduce(IFn fn, Object start){
+		return reduce(fn, start, f);
+	}
+
+	private Object reduce(IFn fn, Object start, ISeq front){
+		Object ret = reduceSeq(front, fn, start);
+		if(!RT.isReduced(ret))
+			ret = reduceSeq(rseq, fn, ret);
+		if(RT.isReduced(ret))
+			return ((IDeref) ret).deref();
+		return ret;
+	}
+
 	public Seq withMeta(IPersistentMap meta){
 		return new Seq(meta, f, rseq);
 	}
@@ -240,7 +324,31 @@ public boolean contains(Object o){
 }
 
 public Iterator iterator(){
-	return new SeqIterator(seq());
+	return new Iterator(){
+		private ISeq fseq = f;
+		private final Iterator riter = r != null ? r.iterator() : null;
+
+		public boolean hasNext(){
+			return fseq != null || (riter != null && riter.hasNext());
+		}
+
+		public Object next(){
+			if(fseq != null)
+				{
+				Object ret = fseq.first();
+				fseq = fseq.next();
+				return ret;
+				}
+			else if(riter != null && riter.hasNext())
+				return riter.next();
+			else
+				throw new NoSuchElementException();
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	};
 }
 
 /*
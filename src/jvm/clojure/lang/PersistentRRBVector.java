@@ -0,0 +1,731 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.Iterator;
+
+import clojure.lang.PersistentVector.Node;
+
+/**
+ * Relaxed radix balanced vector
+ * The PersistentVector trie, except that interior nodes may hold subtrees
+ * that are not full, with a table of cumulative sizes to index them. That
+ * allows concat, slice and insertAt in O(log n).
+ * <p/>
+ * Nodes are exact size arrays. Full leaves and subtrees are shared with
+ * PersistentVector in both directions.
+ * <p/>
+ * See Bagwell and Rompf, RRB-Trees: Efficient Immutable Vectors, and
+ * L'orange, Improving RRB-Tree Performance through Transience
+ */
+
+public class PersistentRRBVector extends APersistentVector implements IObj{
+
+static final int BRANCH = 32;
+//extra nodes per level concat tolerates before redistributing
+static final int EXTRAS = 2;
+
+static final Node EMPTY_ROOT = new Node(PersistentVector.NOEDIT, new Object[0]);
+
+public final static PersistentRRBVector EMPTY = new PersistentRRBVector(null, 0, 5, EMPTY_ROOT, new Object[0]);
+
+final int cnt;
+public final int shift;
+public final Node root;
+public final Object[] tail;
+final IPersistentMap _meta;
+
+static final class RelaxedNode extends Node{
+	//number of elements in children 0..i
+	final int[] sizes;
+
+	RelaxedNode(Object[] array, int[] sizes){
+		super(PersistentVector.NOEDIT, array);
+		this.sizes = sizes;
+	}
+}
+
+static public PersistentRRBVector create(PersistentVector v){
+	Node root = trim(v.root, v.shift, v.count() - v.tail.length);
+	return new PersistentRRBVector(v.meta(), v.count(), v.shift, root, v.tail);
+}
+
+static public PersistentRRBVector create(ISeq items){
+	return create(PersistentVector.create(items));
+}
+
+PersistentRRBVector(IPersistentMap meta, int cnt, int shift, Node root, Object[] tail){
+	this._meta = meta;
+	this.cnt = cnt;
+	this.shift = shift;
+	this.root = root;
+	this.tail = tail;
+}
+
+public PersistentRRBVector withMeta(IPersistentMap meta){
+	return new PersistentRRBVector(meta, cnt, shift, root, tail);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public int count(){
+	return cnt;
+}
+
+final int tailoff(){
+	return cnt - tail.length;
+}
+
+public Object nth(int i){
+	if(i >= 0 && i < cnt)
+		{
+		if(i >= tailoff())
+			return tail[i - tailoff()];
+		Node node = root;
+		for(int level = shift; level > 0; level -= 5)
+			{
+			int j = slot(node, level, i);
+			i -= offset(node, level, j);
+			node = (Node) node.array[j];
+			}
+		return node.array[i];
+		}
+	throw new IndexOutOfBoundsException();
+}
+
+public Object nth(int i, Object notFound){
+	if(i >= 0 && i < cnt)
+		return nth(i);
+	return notFound;
+}
+
+public Object[] arrayFor(int i){
+	if(i >= 0 && i < cnt)
+		{
+		if(i >= tailoff())
+			return tail;
+		Node node = root;
+		for(int level = shift; level > 0; level -= 5)
+			{
+			int j = slot(node, level, i);
+			i -= offset(node, level, j);
+			node = (Node) node.array[j];
+			}
+		return node.array;
+		}
+	throw new IndexOutOfBoundsException();
+}
+
+//index of the first element of the leaf holding i
+int leafBase(int i){
+	if(i >= tailoff())
+		return tailoff();
+	int base = 0;
+	Node node = root;
+	for(int level = shift; level > 0; level -= 5)
+		{
+		int j = slot(node, level, i - base);
+		base += offset(node, level, j);
+		node = (Node) node.array[j];
+		}
+	return base;
+}
+
+public PersistentRRBVector assocN(int i, Object val){
+	if(i >= 0 && i < cnt)
+		{
+		if(i >= tailoff())
+			{
+			Object[] newTail = tail.clone();
+			newTail[i - tailoff()] = val;
+			return new PersistentRRBVector(_meta, cnt, shift, root, newTail);
+			}
+		return new PersistentRRBVector(_meta, cnt, shift, doAssoc(root, shift, i, val), tail);
+		}
+	if(i == cnt)
+		return cons(val);
+	throw new IndexOutOfBoundsException();
+}
+
+static Node doAssoc(Node node, int level, int i, Object val){
+	Object[] array = node.array.clone();
+	if(level == 0)
+		{
+		array[i] = val;
+		return new Node(PersistentVector.NOEDIT, array);
+		}
+	int j = slot(node, level, i);
+	array[j] = doAssoc((Node) array[j], level - 5, i - offset(node, level, j), val);
+	if(node instanceof RelaxedNode)
+		return new RelaxedNode(array, ((RelaxedNode) node).sizes);
+	return new Node(PersistentVector.NOEDIT, array);
+}
+
+public PersistentRRBVector cons(Object val){
+	if(tail.length < BRANCH)
+		{
+		Object[] newTail = new Object[tail.length + 1];
+		System.arraycopy(tail, 0, newTail, 0, tail.length);
+		newTail[tail.length] = val;
+		return new PersistentRRBVector(_meta, cnt + 1, shift, root, newTail);
+		}
+	Node leaf = new Node(PersistentVector.NOEDIT, tail);
+	Node newroot = appendLeaf(root, shift, leaf);
+	int newshift = shift;
+	if(newroot == null)
+		{
+		newroot = node(new Object[]{root, newPath(shift, leaf)}, shift + 5);
+		newshift += 5;
+		}
+	return new PersistentRRBVector(_meta, cnt + 1, newshift, newroot, new Object[]{val});
+}
+
+public PersistentRRBVector pop(){
+	if(cnt == 0)
+		throw new IllegalStateException("Can't pop empty vector");
+	if(cnt == 1)
+		return EMPTY.withMeta(_meta);
+	if(tail.length > 1)
+		{
+		Object[] newTail = new Object[tail.length - 1];
+		System.arraycopy(tail, 0, newTail, 0, newTail.length);
+		return new PersistentRRBVector(_meta, cnt - 1, shift, root, newTail);
+		}
+	return withTailFromTree(_meta, cnt - 1, shift, root);
+}
+
+public IPersistentCollection empty(){
+	return EMPTY.withMeta(meta());
+}
+
+/**
+ * Returns a vector of this vector's elements followed by those of v,
+ * in O(log n) when v is a PersistentVector or PersistentRRBVector.
+ */
+public PersistentRRBVector concat(IPersistentVector v){
+	PersistentRRBVector b;
+	if(v instanceof PersistentRRBVector)
+		b = (PersistentRRBVector) v;
+	else if(v instanceof PersistentVector)
+		b = create((PersistentVector) v);
+	else
+		{
+		PersistentRRBVector ret = this;
+		for(ISeq s = RT.seq(v); s != null; s = s.next())
+			ret = ret.cons(s.first());
+		return ret;
+		}
+	if(b.cnt == 0)
+		return this;
+	if(cnt == 0)
+		return b.withMeta(_meta);
+	if(b.tailoff() == 0)
+		{
+		PersistentRRBVector ret = this;
+		for(int i = 0; i < b.tail.length; i++)
+			ret = ret.cons(b.tail[i]);
+		return ret;
+		}
+	//our tail goes into the tree, b's stays the tail
+	Node leaf = new Node(PersistentVector.NOEDIT, tail);
+	Node left = appendLeaf(root, shift, leaf);
+	int lshift = shift;
+	if(left == null)
+		{
+		left = node(new Object[]{root, newPath(shift, leaf)}, shift + 5);
+		lshift += 5;
+		}
+	Object[] merged = concat(left, lshift, b.root, b.shift);
+	int newshift = Math.max(lshift, b.shift);
+	Node newroot = (Node) merged[0];
+	if(merged.length > 1)
+		{
+		newroot = node(merged, newshift + 5);
+		newshift += 5;
+		}
+	while(newshift > 5 && newroot.array.length == 1)
+		{
+		newroot = (Node) newroot.array[0];
+		newshift -= 5;
+		}
+	return new PersistentRRBVector(_meta, cnt + b.cnt, newshift, newroot, b.tail);
+}
+
+/**
+ * Returns a vector of the elements from start (inclusive) to end
+ * (exclusive), in O(log n). Unlike subvec the result does not hold on
+ * to the rest of this vector.
+ */
+public PersistentRRBVector slice(int start, int end){
+	if(start < 0 || end > cnt || start > end)
+		throw new IndexOutOfBoundsException();
+	if(start == 0 && end == cnt)
+		return this;
+	if(start == end)
+		return EMPTY.withMeta(_meta);
+	int tailoff = tailoff();
+	if(start >= tailoff)
+		{
+		Object[] newTail = new Object[end - start];
+		System.arraycopy(tail, start - tailoff, newTail, 0, newTail.length);
+		return new PersistentRRBVector(_meta, newTail.length, 5, EMPTY_ROOT, newTail);
+		}
+	if(end > tailoff)
+		{
+		Object[] newTail = new Object[end - tailoff];
+		System.arraycopy(tail, 0, newTail, 0, newTail.length);
+		Node newroot = sliceLeft(root, shift, start);
+		int newshift = shift;
+		while(newshift > 5 && newroot.array.length == 1)
+			{
+			newroot = (Node) newroot.array[0];
+			newshift -= 5;
+			}
+		return new PersistentRRBVector(_meta, end - start, newshift, newroot, newTail);
+		}
+	Node newroot = sliceLeft(sliceRight(root, shift, end), shift, start);
+	return withTailFromTree(_meta, end - start, shift, newroot);
+}
+
+/**
+ * Returns a vector with val inserted before index i, in O(log n).
+ */
+public PersistentRRBVector insertAt(int i, Object val){
+	if(i < 0 || i > cnt)
+		throw new IndexOutOfBoundsException();
+	return slice(0, i).cons(val).concat(slice(i, cnt)).withMeta(_meta);
+}
+
+/**
+ * Returns a PersistentVector of the same elements, sharing the trie when
+ * it has no relaxed nodes.
+ */
+public PersistentVector toPersistentVector(){
+	if(tailoff() % BRANCH == 0 && !(root instanceof RelaxedNode))
+		return new PersistentVector(_meta, cnt, shift, pad(root, shift), tail);
+	PersistentVector.TransientVector ret = PersistentVector.EMPTY.asTransient();
+	for(int i = 0; i < cnt; i += arrayFor(i).length)
+		{
+		Object[] array = arrayFor(i);
+		for(int j = 0; j < array.length; j++)
+			ret = ret.conj(array[j]);
+		}
+	return (PersistentVector) ret.persistent().withMeta(_meta);
+}
+
+public IChunkedSeq chunkedSeq(){
+	if(count() == 0)
+		return null;
+	return new ChunkedSeq(this, 0, 0);
+}
+
+public ISeq seq(){
+	return chunkedSeq();
+}
+
+Iterator rangedIterator(final int start, final int end){
+	return new Iterator(){
+		int i = start;
+		int base = start < end ? leafBase(start) : start;
+		Object[] array = start < end ? arrayFor(start) : null;
+
+		public boolean hasNext(){
+			return i < end;
+		}
+
+		public Object next(){
+			if(i - base == array.length)
+				{
+				base = i;
+				array = arrayFor(i);
+				}
+			return array[i++ - base];
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	};
+}
+
+public Iterator iterator(){
+	return rangedIterator(0, count());
+}
+
+public Object kvreduce(IFn f, Object init){
+	int step = 0;
+	for(int i = 0; i < cnt; i += step)
+		{
+		Object[] array = arrayFor(i);
+		for(int j = 0; j < array.length; ++j)
+			{
+			init = f.invoke(init, j + i, array[j]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		step = array.length;
+		}
+	return init;
+}
+
+static public final class ChunkedSeq extends ASeq implements IChunkedSeq, Counted{
+
+	public final PersistentRRBVector vec;
+	final Object[] node;
+	//i is the index of the first element of node
+	final int i;
+	public final int offset;
+
+	public ChunkedSeq(PersistentRRBVector vec, int i, int offset){
+		this.vec = vec;
+		this.i = i;
+		this.offset = offset;
+		this.node = vec.arrayFor(i);
+	}
+
+	ChunkedSeq(IPersistentMap meta, PersistentRRBVector vec, Object[] node, int i, int offset){
+		super(meta);
+		this.vec = vec;
+		this.node = node;
+		this.i = i;
+		this.offset = offset;
+	}
+
+	ChunkedSeq(PersistentRRBVector vec, Object[] node, int i, int offset){
+		this.vec = vec;
+		this.node = node;
+		this.i = i;
+		this.offset = offset;
+	}
+
+	public IChunk chunkedFirst(){
+		return new ArrayChunk(node, offset);
+	}
+
+	public ISeq chunkedNext(){
+		if(i + node.length < vec.cnt)
+			return new ChunkedSeq(vec, i + node.length, 0);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Obj withMeta(IPersistentMap meta){
+		if(meta == this._meta)
+			return this;
+		return new ChunkedSeq(meta, vec, node, i, offset);
+	}
+
+	public Object first(){
+		return node[offset];
+	}
+
+	public ISeq next(){
+		if(offset + 1 < node.length)
+			return new ChunkedSeq(vec, node, i, offset + 1);
+		return chunkedNext();
+	}
+
+	public int count(){
+		return vec.cnt - (i + offset);
+	}
+}
+
+//child of node, a node at level, holding index i
+static int slot(Node node, int level, int i){
+	if(node instanceof RelaxedNode)
+		{
+		int[] sizes = ((RelaxedNode) node).sizes;
+		//children hold at most 1 << level, so i is at or after this one
+		int j = i >>> level;
+		while(sizes[j] <= i)
+			j++;
+		return j;
+		}
+	return i >>> level;
+}
+
+//index of the first element of child j
+static int offset(Node node, int level, int j){
+	if(node instanceof RelaxedNode)
+		return j == 0 ? 0 : ((RelaxedNode) node).sizes[j - 1];
+	return j << level;
+}
+
+//number of elements under node, level 0 being a leaf
+static int size(Node node, int level){
+	int n = node.array.length;
+	if(level == 0 || n == 0)
+		return n;
+	if(node instanceof RelaxedNode)
+		return ((RelaxedNode) node).sizes[n - 1];
+	return ((n - 1) << level) + size((Node) node.array[n - 1], level - 5);
+}
+
+static boolean full(Node node, int level){
+	return !(node instanceof RelaxedNode) && size(node, level) == 1 << (level + 5);
+}
+
+//interior node at level, relaxed unless all children but the last are full
+static Node node(Object[] children, int level){
+	int n = children.length;
+	boolean regular = n == 0 || !(children[n - 1] instanceof RelaxedNode);
+	for(int i = 0; regular && i < n - 1; i++)
+		regular = full((Node) children[i], level - 5);
+	if(regular)
+		return new Node(PersistentVector.NOEDIT, children);
+	int[] sizes = new int[n];
+	int total = 0;
+	for(int i = 0; i < n; i++)
+		{
+		total += size((Node) children[i], level - 5);
+		sizes[i] = total;
+		}
+	return new RelaxedNode(children, sizes);
+}
+
+static Node newPath(int level, Node leaf){
+	if(level == 0)
+		return leaf;
+	return node(new Object[]{newPath(level - 5, leaf)}, level);
+}
+
+//node with leaf added at the end, null when there is no room under node
+static Node appendLeaf(Node node, int level, Node leaf){
+	int n = node.array.length;
+	if(level > 5 && n > 0)
+		{
+		Node last = appendLeaf((Node) node.array[n - 1], level - 5, leaf);
+		if(last != null)
+			{
+			Object[] array = node.array.clone();
+			array[n - 1] = last;
+			return node(array, level);
+			}
+		}
+	if(n == BRANCH)
+		return null;
+	Object[] array = new Object[n + 1];
+	System.arraycopy(node.array, 0, array, 0, n);
+	array[n] = newPath(level - 5, leaf);
+	return node(array, level);
+}
+
+//vector of cnt elements whose last leaf, under root, becomes the tail
+static PersistentRRBVector withTailFromTree(IPersistentMap meta, int cnt, int shift, Node root){
+	Node leaf = root;
+	for(int level = shift; level > 0; level -= 5)
+		leaf = (Node) leaf.array[leaf.array.length - 1];
+	Node newroot = removeLastLeaf(root, shift);
+	while(shift > 5 && newroot.array.length == 1)
+		{
+		newroot = (Node) newroot.array[0];
+		shift -= 5;
+		}
+	return new PersistentRRBVector(meta, cnt, shift, newroot, leaf.array);
+}
+
+static Node removeLastLeaf(Node node, int level){
+	int n = node.array.length;
+	if(level > 5)
+		{
+		Node last = removeLastLeaf((Node) node.array[n - 1], level - 5);
+		if(last.array.length > 0)
+			{
+			Object[] array = node.array.clone();
+			array[n - 1] = last;
+			return node(array, level);
+			}
+		}
+	Object[] array = new Object[n - 1];
+	System.arraycopy(node.array, 0, array, 0, n - 1);
+	return node(array, level);
+}
+
+//the first end elements under node
+static Node sliceRight(Node node, int level, int end){
+	if(level == 0)
+		{
+		if(end == node.array.length)
+			return node;
+		Object[] array = new Object[end];
+		System.arraycopy(node.array, 0, array, 0, end);
+		return new Node(PersistentVector.NOEDIT, array);
+		}
+	int j = slot(node, level, end - 1);
+	Object[] array = new Object[j + 1];
+	System.arraycopy(node.array, 0, array, 0, j + 1);
+	array[j] = sliceRight((Node) array[j], level - 5, end - offset(node, level, j));
+	return node(array, level);
+}
+
+//node without its first start elements
+static Node sliceLeft(Node node, int level, int start){
+	if(start == 0)
+		return node;
+	int n = node.array.length;
+	if(level == 0)
+		{
+		Object[] array = new Object[n - start];
+		System.arraycopy(node.array, start, array, 0, n - start);
+		return new Node(PersistentVector.NOEDIT, array);
+		}
+	int j = slot(node, level, start);
+	Object[] array = new Object[n - j];
+	System.arraycopy(node.array, j, array, 0, n - j);
+	array[0] = sliceLeft((Node) array[0], level - 5, start - offset(node, level, j));
+	return node(array, level);
+}
+
+/*
+ * Concatenates the trees left and right, returning one or two nodes at the
+ * greater of their levels. The seam is merged bottom up, and at each level
+ * the nodes along it are redistributed by rebalance.
+ */
+static Object[] concat(Node left, int lshift, Node right, int rshift){
+	Object[] all;
+	int level;
+	if(lshift > rshift)
+		{
+		Object[] mid = concat((Node) last(left.array), lshift - 5, right, rshift);
+		all = join(left.array, 0, left.array.length - 1, mid, right.array, 0, 0);
+		level = lshift;
+		}
+	else if(lshift < rshift)
+		{
+		Object[] mid = concat(left, lshift, (Node) right.array[0], rshift - 5);
+		all = join(left.array, 0, 0, mid, right.array, 1, right.array.length);
+		level = rshift;
+		}
+	else if(lshift == 0)
+		return new Object[]{left, right};
+	else
+		{
+		Object[] mid = concat((Node) last(left.array), lshift - 5, (Node) right.array[0], rshift - 5);
+		all = join(left.array, 0, left.array.length - 1, mid, right.array, 1, right.array.length);
+		level = lshift;
+		}
+	all = rebalance(all, level - 5);
+	if(all.length <= BRANCH)
+		return new Object[]{node(all, level)};
+	Object[] a = new Object[BRANCH];
+	Object[] b = new Object[all.length - BRANCH];
+	System.arraycopy(all, 0, a, 0, BRANCH);
+	System.arraycopy(all, BRANCH, b, 0, b.length);
+	return new Object[]{node(a, level), node(b, level)};
+}
+
+/*
+ * Redistributes the contents of the nodes, all at level, so there are at most
+ * EXTRAS more nodes than needed. Short nodes are merged into their right
+ * neighbours, nodes left as they were are reused.
+ */
+static Object[] rebalance(Object[] nodes, int level){
+	int n = nodes.length;
+	int[] counts = new int[n];
+	int total = 0;
+	for(int i = 0; i < n; i++)
+		{
+		counts[i] = ((Node) nodes[i]).array.length;
+		total += counts[i];
+		}
+	int optimal = (total + BRANCH - 1) / BRANCH;
+	int len = n;
+	int i = 0;
+	while(optimal + EXTRAS < len)
+		{
+		while(counts[i] > BRANCH - EXTRAS / 2)
+			i++;
+		int remaining = counts[i];
+		while(remaining > 0)
+			{
+			int size = Math.min(remaining + counts[i + 1], BRANCH);
+			counts[i] = size;
+			remaining = remaining + counts[i + 1] - size;
+			i++;
+			}
+		System.arraycopy(counts, i + 1, counts, i, len - i - 1);
+		len--;
+		i--;
+		}
+	if(len == n)
+		return nodes;
+	Object[] items = new Object[total];
+	int pos = 0;
+	for(int k = 0; k < n; k++)
+		{
+		Object[] array = ((Node) nodes[k]).array;
+		System.arraycopy(array, 0, items, pos, array.length);
+		pos += array.length;
+		}
+	Object[] ret = new Object[len];
+	pos = 0;
+	int k = 0;
+	int start = 0;
+	for(int j = 0; j < len; j++)
+		{
+		while(start + ((Node) nodes[k]).array.length <= pos)
+			start += ((Node) nodes[k++]).array.length;
+		if(start == pos && ((Node) nodes[k]).array.length == counts[j])
+			ret[j] = nodes[k];
+		else
+			{
+			Object[] array = new Object[counts[j]];
+			System.arraycopy(items, pos, array, 0, counts[j]);
+			ret[j] = level == 0 ? new Node(PersistentVector.NOEDIT, array) : node(array, level);
+			}
+		pos += counts[j];
+		}
+	return ret;
+}
+
+static Object last(Object[] array){
+	return array[array.length - 1];
+}
+
+static Object[] join(Object[] a, int astart, int aend, Object[] mid, Object[] b, int bstart, int bend){
+	Object[] ret = new Object[(aend - astart) + mid.length + (bend - bstart)];
+	System.arraycopy(a, astart, ret, 0, aend - astart);
+	System.arraycopy(mid, 0, ret, aend - astart, mid.length);
+	System.arraycopy(b, bstart, ret, aend - astart + mid.length, bend - bstart);
+	return ret;
+}
+
+//PersistentVector node with size elements, with the right edge cut to size
+static Node trim(Node node, int level, int size){
+	if(level == 0)
+		return node;
+	if(size == 0)
+		return EMPTY_ROOT;
+	int n = ((size - 1) >>> level) + 1;
+	Object[] array = new Object[n];
+	System.arraycopy(node.array, 0, array, 0, n);
+	array[n - 1] = trim((Node) array[n - 1], level - 5, size - ((n - 1) << level));
+	return new Node(PersistentVector.NOEDIT, array);
+}
+
+//regular node padded out to the 32 slot arrays PersistentVector expects
+static Node pad(Node node, int level){
+	Object[] array = new Object[BRANCH];
+	int n = node.array.length;
+	System.arraycopy(node.array, 0, array, 0, n);
+	if(level > 5 && n > 0)
+		array[n - 1] = pad((Node) array[n - 1], level - 5);
+	return new Node(PersistentVector.NOEDIT, array);
+}
+}
@@ -12,19 +12,161 @@
 
 package clojure.lang;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Serializable;
 
 public class PersistentStructMap extends APersistentMap implements IObj{
 
+/**
+ * The shape of a struct map: its keys, in slot order, and an index from key
+ * to slot. The Def made by createSlotMap is a root. Assoc'ing a key not in a
+ * shape moves the map to a child shape with that key in one more slot, and
+ * the children are cached on the parent so maps extended alike share them.
+ * Past MAX_EXTENSION_SLOTS or MAX_TRANSITIONS, or once the root has MAX_SHAPES
+ * shapes under it, further keys go into the ext map.
+ */
 public static class Def implements Serializable{
-	final ISeq keys;
-	final IPersistentMap keyslots;
-
-	Def(ISeq keys, IPersistentMap keyslots){
+	static final int MAX_EXTENSION_SLOTS = 8;
+	static final int MAX_TRANSITIONS = 8;
+	static final int MAX_SHAPES = 64;
+
+	final Object[] keys;
+	final int[] hashes;
+	//slot + 1, 0 for empty
+	final int[] index;
+	final int seed;
+	final int shift;
+	//no key maps to a table entry but its own
+	final boolean perfect;
+	final Def root;
+	//shapes made under a root, null in the others
+	final AtomicInteger shapes;
+	//added key, child, ... copied on write, null until the first child
+	volatile Object[] transitions;
+
+	Def(Object[] keys, Def root){
 		this.keys = keys;
-		this.keyslots = keyslots;
+		this.root = root != null ? root : this;
+		this.shapes = root != null ? null : new AtomicInteger();
+		int n = keys.length;
+		hashes = new int[n];
+		for(int i = 0; i < n; i++)
+			hashes[i] = Util.hasheq(keys[i]);
+		int[] found = findSeed(hashes);
+		this.perfect = found != null;
+		int bits = found != null ? found[1] : minBits(n) + 1;
+		this.seed = found != null ? found[0] : 0x9e3779b9;
+		this.shift = 32 - bits;
+		this.index = place(hashes, seed, bits, true);
+	}
+
+	static int minBits(int n){
+		int bits = 1;
+		while((1 << bits) < n)
+			bits++;
+		return bits;
+	}
+
+	//a multiplier and table bits placing every key in its own entry, in up to 8x the keys' space
+	static int[] findSeed(int[] hashes){
+		int bits = minBits(hashes.length);
+		for(int b = bits; b <= bits + 3; b++)
+			{
+			for(int k = 0; k < 32; k++)
+				{
+				int m = 0x9e3779b9 * (2 * k + 1);
+				if(place(hashes, m, b, false) != null)
+					return new int[]{m, b};
+				}
+			}
+		return null;
+	}
+
+	//returns null on a collision unless probing
+	static int[] place(int[] hashes, int seed, int bits, boolean probe){
+		int[] table = new int[1 << bits];
+		int mask = table.length - 1;
+		for(int i = 0; i < hashes.length; i++)
+			{
+			int s = (hashes[i] * seed) >>> (32 - bits);
+			while(table[s] != 0)
+				{
+				if(!probe)
+					return null;
+				s = (s + 1) & mask;
+				}
+			table[s] = i + 1;
+			}
+		return table;
+	}
+
+	int slot(Object key){
+		int h = Util.hasheq(key);
+		int mask = index.length - 1;
+		for(int s = (h * seed) >>> shift; ; s = (s + 1) & mask)
+			{
+			int e = index[s];
+			if(e == 0)
+				return -1;
+			e--;
+			if(keys[e] == key || (hashes[e] == h && Util.equiv(key, keys[e])))
+				return e;
+			if(perfect)
+				return -1;
+			}
+	}
+
+	//the shape with key in an added slot, or null when keys past this one go to ext
+	Def extend(Object key){
+		if(key == null)
+			return null;
+		Def child = transition(transitions, key);
+		if(child != null || keys.length - root.keys.length >= MAX_EXTENSION_SLOTS)
+			return child;
+		synchronized(this)
+			{
+			Object[] t = transitions;
+			child = transition(t, key);
+			if(child != null)
+				return child;
+			int n = t == null ? 0 : t.length;
+			if(n / 2 >= MAX_TRANSITIONS || !root.addShape())
+				return null;
+			Object[] childKeys = Arrays.copyOf(keys, keys.length + 1);
+			childKeys[keys.length] = key;
+			child = new Def(childKeys, root);
+			Object[] newt = new Object[n + 2];
+			if(t != null)
+				System.arraycopy(t, 0, newt, 0, n);
+			newt[n] = key;
+			newt[n + 1] = child;
+			transitions = newt;
+			return child;
+			}
+	}
+
+	static Def transition(Object[] t, Object key){
+		if(t != null)
+			{
+			for(int i = 0; i < t.length; i += 2)
+				{
+				if(t[i] == key || Util.equiv(key, t[i]))
+					return (Def) t[i + 1];
+				}
+			}
+		return null;
+	}
+
+	//on a root, counts a new shape under it unless there are MAX_SHAPES already
+	boolean addShape(){
+		for(int n = shapes.get(); n < MAX_SHAPES; n = shapes.get())
+			{
+			if(shapes.compareAndSet(n, n + 1))
+				return true;
+			}
+		return false;
 	}
 }
 
@@ -37,37 +179,43 @@ final IPersistentMap _meta;
 static public Def createSlotMap(ISeq keys){
 	if(keys == null)
 		throw new IllegalArgumentException("Must supply keys");
-	int c = RT.count(keys);
-	Object[] v = new Object[2*c];
-	int i = 0;
-	for(ISeq s = keys; s != null; s = s.next(), i++)
+	Object[] k = RT.seqToArray(keys);
+	Def def = new Def(k, null);
+	for(int i = 0; i < k.length; i++)
 		{
-		v[2*i] =  s.first();
-		v[2*i+1] = i;
+		if(def.slot(k[i]) != i)
+			throw new IllegalArgumentException("Duplicate key: " + k[i]);
 		}
-	return new Def(keys, RT.map(v));
+	return def;
 }
 
 static public PersistentStructMap create(Def def, ISeq keyvals){
-	Object[] vals = new Object[def.keyslots.count()];
+	Object[] vals = new Object[def.keys.length];
 	IPersistentMap ext = PersistentHashMap.EMPTY;
+	ISeq extra = null;
 	for(; keyvals != null; keyvals = keyvals.next().next())
 		{
 		if(keyvals.next() == null)
 			throw new IllegalArgumentException(String.format("No value supplied for key: %s", keyvals.first()));
 		Object k = keyvals.first();
 		Object v = RT.second(keyvals);
-		Map.Entry e = def.keyslots.entryAt(k);
-		if(e != null)
-			vals[(Integer) e.getValue()] = v;
-		else
-			ext = ext.assoc(k, v);
+		int i = def.slot(k);
+		if(i >= 0)
+			vals[i] = v;
+		else if(extra == null)
+			extra = keyvals;
 		}
-	return new PersistentStructMap(null, def, vals, ext);
+	PersistentStructMap ret = new PersistentStructMap(null, def, vals, ext);
+	for(; extra != null; extra = extra.next().next())
+		{
+		if(def.slot(extra.first()) < 0)
+			ret = (PersistentStructMap) ret.assoc(extra.first(), RT.second(extra));
+		}
+	return ret;
 }
 
 static public PersistentStructMap construct(Def def, ISeq valseq){
-	Object[] vals = new Object[def.keyslots.count()];
+	Object[] vals = new Object[def.keys.length];
 	IPersistentMap ext = PersistentHashMap.EMPTY;
 	for(int i = 0; i < vals.length && valseq != null; valseq = valseq.next(), i++)
 		{
@@ -79,14 +227,13 @@ static public PersistentStructMap construct(Def def, ISeq valseq){
 }
 
 static public IFn getAccessor(final Def def, Object key){
-	Map.Entry e = def.keyslots.entryAt(key);
-	if(e != null)
+	final int i = def.slot(key);
+	if(i >= 0)
 		{
-		final int i = (Integer) e.getValue();
 		return new AFn(){
 			public Object invoke(Object arg1) {
 				PersistentStructMap m = (PersistentStructMap) arg1;
-				if(m.def != def)
+				if(m.def != def && m.def.root != def)
 					throw Util.runtimeException("Accessor/struct mismatch");
 				return m.vals[i];
 			}
@@ -124,33 +271,39 @@ public IPersistentMap meta(){
 }
 
 public boolean containsKey(Object key){
-	return def.keyslots.containsKey(key) || ext.containsKey(key);
+	return def.slot(key) >= 0 || ext.containsKey(key);
 }
 
 public IMapEntry entryAt(Object key){
-	Map.Entry e = def.keyslots.entryAt(key);
-	if(e != null)
+	int i = def.slot(key);
+	if(i >= 0)
 		{
-		return new MapEntry(e.getKey(), vals[(Integer) e.getValue()]);
+		return new MapEntry(def.keys[i], vals[i]);
 		}
 	return ext.entryAt(key);
 }
 
 public IPersistentMap assoc(Object key, Object val){
-	Map.Entry e = def.keyslots.entryAt(key);
-	if(e != null)
+	int i = def.slot(key);
+	if(i >= 0)
 		{
-		int i = (Integer) e.getValue();
 		Object[] newVals = vals.clone();
 		newVals[i] = val;
 		return makeNew(_meta, def, newVals, ext);
 		}
+	Def child;
+	if(!ext.containsKey(key) && (child = def.extend(key)) != null)
+		{
+		Object[] newVals = Arrays.copyOf(vals, vals.length + 1);
+		newVals[vals.length] = val;
+		return makeNew(_meta, child, newVals, ext);
+		}
 	return makeNew(_meta, def, vals, ext.assoc(key, val));
 }
 
 public Object valAt(Object key){
-	Integer i = (Integer) def.keyslots.valAt(key);
-	if(i != null)
+	int i = def.slot(key);
+	if(i >= 0)
 		{
 		return vals[i];
 		}
@@ -158,8 +311,8 @@ public Object valAt(Object key){
 }
 
 public Object valAt(Object key, Object notFound){
-	Integer i = (Integer) def.keyslots.valAt(key);
-	if(i != null)
+	int i = def.slot(key);
+	if(i >= 0)
 		{
 		return vals[i];
 		}
@@ -173,9 +326,21 @@ public IPersistentMap assocEx(Object key, Object val) {
 }
 
 public IPersistentMap without(Object key) {
-	Map.Entry e = def.keyslots.entryAt(key);
-	if(e != null)
-		throw Util.runtimeException("Can't remove struct key");
+	int i = def.slot(key);
+	if(i >= 0)
+		{
+		int n = def.root.keys.length;
+		if(i < n)
+			throw Util.runtimeException("Can't remove struct key");
+		//re-extend the root shape by the remaining added keys
+		IPersistentMap ret = makeNew(_meta, def.root, Arrays.copyOf(vals, n), ext);
+		for(int j = n; j < vals.length; j++)
+			{
+			if(j != i)
+				ret = ret.assoc(def.keys[j], vals[j]);
+			}
+		return ret;
+		}
 	IPersistentMap newExt = ext.without(key);
 	if(newExt == ext)
 		return this;
@@ -196,17 +361,17 @@ public ISeq seq(){
 }
 
 public IPersistentCollection empty(){
-	return construct(def, null);
+	return construct(def.root, null);
 }
 
 static class Seq extends ASeq{
 	final int i;
-	final ISeq keys;
+	final Object[] keys;
 	final Object[] vals;
 	final IPersistentMap ext;
 
 
-	public Seq(IPersistentMap meta, ISeq keys, Object[] vals, int i, IPersistentMap ext){
+	public Seq(IPersistentMap meta, Object[] keys, Object[] vals, int i, IPersistentMap ext){
 		super(meta);
 		this.i = i;
 		this.keys = keys;
@@ -221,12 +386,12 @@ static class Seq extends ASeq{
 	}
 
 	public Object first(){
-		return new MapEntry(keys.first(), vals[i]);
+		return new MapEntry(keys[i], vals[i]);
 	}
 
 	public ISeq next(){
 		if(i + 1 < vals.length)
-			return new Seq(_meta, keys.next(), vals, i + 1, ext);
+			return new Seq(_meta, keys, vals, i + 1, ext);
 		return ext.seq();
 	}
 }
@@ -13,6 +13,7 @@
 package clojure.lang;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Persistent Red Black Tree
@@ -22,7 +23,7 @@ import java.util.*;
  * See Okasaki, Kahrs, Larsen et al
  */
 
-public class PersistentTreeMap extends APersistentMap implements IObj, Reversible, Sorted{
+public class PersistentTreeMap extends APersistentMap implements IObj, Reversible, Sorted, IEditableCollection, IMapIterable{
 
 public final Comparator comp;
 public final Node tree;
@@ -32,13 +33,13 @@ final IPersistentMap _meta;
 final static public PersistentTreeMap EMPTY = new PersistentTreeMap();
 
 static public IPersistentMap create(Map other){
-	IPersistentMap ret = EMPTY;
+	ITransientMap ret = EMPTY.asTransient();
 	for(Object o : other.entrySet())
 		{
 		Map.Entry e = (Entry) o;
 		ret = ret.assoc(e.getKey(), e.getValue());
 		}
-	return ret;
+	return ret.persistent();
 }
 
 public PersistentTreeMap(){
@@ -69,25 +70,22 @@ PersistentTreeMap(IPersistentMap meta, Comparator comp, Node tree, int _count){
 }
 
 static public PersistentTreeMap create(ISeq items){
-	IPersistentMap ret = EMPTY;
-	for(; items != null; items = items.next().next())
-		{
-		if(items.next() == null)
-			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
-		ret = ret.assoc(items.first(), RT.second(items));
-		}
-	return (PersistentTreeMap) ret;
+	return create(EMPTY, items);
 }
 
 static public PersistentTreeMap create(Comparator comp, ISeq items){
-	IPersistentMap ret = new PersistentTreeMap(comp);
+	return create(new PersistentTreeMap(comp), items);
+}
+
+static PersistentTreeMap create(PersistentTreeMap empty, ISeq items){
+	ITransientMap ret = empty.asTransient();
 	for(; items != null; items = items.next().next())
 		{
 		if(items.next() == null)
 			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
 		ret = ret.assoc(items.first(), RT.second(items));
 		}
-	return (PersistentTreeMap) ret;
+	return (PersistentTreeMap) ret.persistent();
 }
 
 public boolean containsKey(Object key){
@@ -201,6 +199,10 @@ public ISeq seqFrom(Object key, boolean ascending){
 	return null;
 }
 
+public ITransientMap asTransient(){
+	return new TransientTreeMap(this);
+}
+
 public NodeIterator iterator(){
 	return new NodeIterator(tree, true);
 }
@@ -234,6 +236,14 @@ public Iterator vals(NodeIterator it){
 	return new ValIterator(it);
 }
 
+public Iterator keyIterator(){
+	return keys();
+}
+
+public Iterator valIterator(){
+	return vals();
+}
+
 public Object minKey(){
 	Node t = min();
 	return t != null ? t.key : null;
@@ -485,6 +495,131 @@ public IPersistentMap meta(){
 	return _meta;
 }
 
+/*
+ * Red black nodes are shared and immutable, so the transient collects changes
+ * in a sorted buffer instead of editing nodes. persistent! assoc's a few
+ * changes into the tree, many are merged with the tree's entries in order and
+ * a balanced tree is built from the result in linear time.
+ */
+static final class TransientTreeMap extends ATransientMap{
+	static final Object REMOVED = new Object();
+
+	final AtomicReference<Thread> edit;
+	final PersistentTreeMap base;
+	final TreeMap pending;
+	int count;
+
+	TransientTreeMap(PersistentTreeMap base){
+		this.edit = new AtomicReference<Thread>(Thread.currentThread());
+		this.base = base;
+		this.pending = new TreeMap(base.comp);
+		this.count = base._count;
+	}
+
+	ITransientMap doAssoc(Object key, Object val){
+		if(doValAt(key, REMOVED) == REMOVED)
+			count++;
+		pending.put(key, val);
+		return this;
+	}
+
+	ITransientMap doWithout(Object key){
+		if(doValAt(key, REMOVED) != REMOVED)
+			{
+			count--;
+			pending.put(key, REMOVED);
+			}
+		return this;
+	}
+
+	Object doValAt(Object key, Object notFound){
+		Object v = pending.get(key);
+		if(v == null && !pending.containsKey(key))
+			return base.valAt(key, notFound);
+		return v == REMOVED ? notFound : v;
+	}
+
+	int doCount(){
+		return count;
+	}
+
+	IPersistentMap doPersistent(){
+		edit.set(null);
+		int n = base._count;
+		int depth = 32 - Integer.numberOfLeadingZeros(n);
+		if((long) pending.size() * depth < n)
+			{
+			IPersistentMap ret = base.withMeta(null);
+			for(Object o : pending.entrySet())
+				{
+				Map.Entry e = (Map.Entry) o;
+				ret = e.getValue() == REMOVED ? ret.without(e.getKey()) : ret.assoc(e.getKey(), e.getValue());
+				}
+			return ret;
+			}
+		return new PersistentTreeMap(base.comp, merged(), count, null);
+	}
+
+	Node merged(){
+		Object[] keys = new Object[count];
+		Object[] vals = new Object[count];
+		int i = 0;
+		Iterator it = base.iterator();
+		Iterator pit = pending.entrySet().iterator();
+		Node t = it.hasNext() ? (Node) it.next() : null;
+		Map.Entry p = pit.hasNext() ? (Map.Entry) pit.next() : null;
+		while(t != null || p != null)
+			{
+			int c = t == null ? 1 : p == null ? -1 : base.doCompare(t.key, p.getKey());
+			if(c < 0)
+				{
+				keys[i] = t.key;
+				vals[i++] = t.val();
+				}
+			else if(p.getValue() != REMOVED)
+				{
+				//an existing key keeps its original instance, as with assoc
+				keys[i] = c == 0 ? t.key : p.getKey();
+				vals[i++] = p.getValue();
+				}
+			if(c <= 0)
+				t = it.hasNext() ? (Node) it.next() : null;
+			if(c >= 0)
+				p = pit.hasNext() ? (Map.Entry) pit.next() : null;
+			}
+		return buildFromSorted(keys, vals, 0, i - 1, 0, redLevel(i));
+	}
+
+	void ensureEditable(){
+		Thread owner = edit.get();
+		if(owner == Thread.currentThread())
+			return;
+		if(owner != null)
+			throw new IllegalAccessError("Transient used by non-owner thread");
+		throw new IllegalAccessError("Transient used after persistent! call");
+	}
+}
+
+//the level whose nodes are red when n nodes are built into a complete tree
+static int redLevel(int n){
+	int level = 0;
+	for(int m = n - 1; m >= 0; m = m / 2 - 1)
+		level++;
+	return level;
+}
+
+//balanced tree of the sorted entries lo..hi, black but for the last, partial level
+static Node buildFromSorted(Object[] keys, Object[] vals, int lo, int hi, int level, int redLevel){
+	if(hi < lo)
+		return null;
+	int mid = (lo + hi) >>> 1;
+	Node left = buildFromSorted(keys, vals, lo, mid - 1, level + 1, redLevel);
+	Node right = buildFromSorted(keys, vals, mid + 1, hi, level + 1, redLevel);
+	if(level == redLevel)
+		return red(keys[mid], vals[mid], left, right);
+	return black(keys[mid], vals[mid], left, right);
+}
+
 static abstract class Node extends AMapEntry{
 	final Object key;
 
@@ -834,7 +969,9 @@ static public class Seq extends ASeq{
 }
 
 static public class NodeIterator implements Iterator{
-	Stack stack = new Stack();
+	//the nodes are the entries, so the path is the only state
+	Node[] stack = new Node[16];
+	int top = 0;
 	boolean asc;
 
 	NodeIterator(Node t, boolean asc){
@@ -845,17 +982,26 @@ static public class NodeIterator implements Iterator{
 	void push(Node t){
 		while(t != null)
 			{
-			stack.push(t);
+			if(top == stack.length)
+				{
+				Node[] a = new Node[top * 2];
+				System.arraycopy(stack, 0, a, 0, top);
+				stack = a;
+				}
+			stack[top++] = t;
 			t = asc ? t.left() : t.right();
 			}
 	}
 
 	public boolean hasNext(){
-		return !stack.isEmpty();
+		return top > 0;
 	}
 
 	public Object next(){
-		Node t = (Node) stack.pop();
+		if(top == 0)
+			throw new NoSuchElementException();
+		Node t = stack[--top];
+		stack[top] = null;
 		push(asc ? t.right() : t.left());
 		return t;
 	}
@@ -15,6 +15,7 @@ package clojure.lang;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class PersistentVector extends APersistentVector implements IObj, IEditableCollection{
@@ -312,6 +313,58 @@ public Object kvreduce(IFn f, Object init){
     return init;
 }
 
+public Object fold(long n, IFn combinef, IFn reducef,
+                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+	return foldRange(0, cnt, n, combinef, reducef, fjinvoke, fjtask, fjfork, fjjoin);
+}
+
+Object foldRange(final int start, final int end, final long n, final IFn combinef, final IFn reducef,
+                 IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(end - start <= n)
+		return reduceRange(start, end, reducef, combinef.invoke());
+	Callable top = new Callable(){
+		public Object call() throws Exception{
+			return doFold(start, end, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	};
+	return fjinvoke.invoke(top);
+}
+
+private Object doFold(int start, final int end, final long n, final IFn combinef, final IFn reducef,
+                      final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(end - start <= n)
+		return reduceRange(start, end, reducef, combinef.invoke());
+	//split on a leaf boundary so each task walks whole leaf arrays
+	int split = start + (end - start) / 2;
+	if(((split >>> 5) << 5) > start)
+		split = (split >>> 5) << 5;
+	final int mid = split;
+	Object forked = fjfork.invoke(fjtask.invoke(new Callable(){
+		public Object call() throws Exception{
+			return doFold(mid, end, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	}));
+	return combinef.invoke(doFold(start, mid, n, combinef, reducef, fjtask, fjfork, fjjoin),
+	                       fjjoin.invoke(forked));
+}
+
+Object reduceRange(int start, int end, IFn f, Object init){
+	for(int i = start; i < end;)
+		{
+		Object[] array = arrayFor(i);
+		int off = i & 0x01f;
+		int stop = Math.min(array.length, off + (end - i));
+		for(int j = off; j < stop; ++j)
+			{
+			init = f.invoke(init, array[j]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		i += stop - off;
+		}
+	return init;
+}
+
 static public final class ChunkedSeq extends ASeq implements IChunkedSeq,Counted{
 
 	public final PersistentVector vec;
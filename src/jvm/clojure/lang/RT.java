@@ -511,10 +511,14 @@ static public Object seqOrElse(Object o) {
 }
 
 static public ISeq keys(Object coll){
+	if(coll instanceof IPersistentMap)
+		return APersistentMap.KeySeq.createFromMap((IPersistentMap) coll);
 	return APersistentMap.KeySeq.create(seq(coll));
 }
 
 static public ISeq vals(Object coll){
+	if(coll instanceof IPersistentMap)
+		return APersistentMap.ValSeq.createFromMap((IPersistentMap) coll);
 	return APersistentMap.ValSeq.create(seq(coll));
 }
 
@@ -1460,6 +1464,8 @@ static public IPersistentMap map(Object... init){
 		return PersistentArrayMap.EMPTY;
 	else if(init.length <= PersistentArrayMap.HASHTABLE_THRESHOLD)
 		return PersistentArrayMap.createWithCheck(init);
+	else if(init.length <= 2 * PersistentCompactMap.MAX_ENTRIES)
+		return PersistentCompactMap.createWithCheck(init);
 	return PersistentHashMap.createWithCheck(init);
 }
 
@@ -1468,6 +1474,8 @@ static public IPersistentMap mapUniqueKeys(Object... init){
 		return PersistentArrayMap.EMPTY;
 	else if(init.length <= PersistentArrayMap.HASHTABLE_THRESHOLD)
 		return new PersistentArrayMap(init);
+	else if(init.length <= 2 * PersistentCompactMap.MAX_ENTRIES)
+		return PersistentCompactMap.create(null, init);
 	return PersistentHashMap.create(init);
 }
 
@@ -12,8 +12,10 @@
 
 package clojure.lang;
 
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Ref extends ARef implements IFn, Comparable<Ref>, IRef{
@@ -45,9 +47,9 @@ public Ref setMaxHistory(int maxHistory){
 }
 
 public static class TVal{
-	Object val;
-	long point;
-	TVal prior;
+	volatile Object val;
+	volatile long point;
+	volatile TVal prior;
 	TVal next;
 
 	TVal(Object val, long point, TVal prior){
@@ -68,8 +70,11 @@ public static class TVal{
 
 }
 
-TVal tvals;
+volatile TVal tvals;
+//odd while a commit or trim is changing tvals, see valAsOf
+volatile int stamp;
 final AtomicInteger faults;
+final AtomicLongArray stats = new AtomicLongArray(STATS);
 final ReentrantReadWriteLock lock;
 LockingTransaction.Info tinfo;
 //IFn validator;
@@ -80,6 +85,17 @@ volatile int maxHistory = 10;
 
 static final AtomicLong ids = new AtomicLong();
 
+static final Object NO_VERSION = new Object();
+
+//slots of stats, see LockingTransaction.count
+static final int FAULTS = 0;
+static final int BARGES = 1;
+static final int CONFLICTS = 2;
+static final int LOCK_TIMEOUTS = 3;
+static final int STATS = 4;
+static final Keyword[] STAT_KEYS = {Keyword.intern(null, "faults"), Keyword.intern(null, "barges"),
+                                    Keyword.intern(null, "conflicts"), Keyword.intern(null, "lock-timeouts")};
+
 public Ref(Object initVal) {
 	this(initVal, null);
 }
@@ -95,13 +111,50 @@ public Ref(Object initVal,IPersistentMap meta) {
 //the latest val
 
 // ok out of transaction
+//commits fill in a version before publishing it as tvals, so no lock is needed
 Object currentVal(){
+	TVal tv = tvals;
+	if(tv != null)
+		return tv.val;
+	throw new IllegalStateException(this.toString() + " is unbound.");
+}
+
+/*
+ The val of the newest version at or before point, or NO_VERSION if history
+ doesn't go back that far. Walks tvals without the lock, then checks that no
+ writer changed them meanwhile, seqlock style, falling back to the read lock
+ if one did or is doing so.
+ */
+Object valAsOf(long point){
+	int s = stamp;
+	TVal tv = tvals;
+	if((s & 1) == 0 && tv != null)
+		{
+		Object val = NO_VERSION;
+		TVal ver = tv;
+		do
+			{
+			if(ver.point <= point)
+				{
+				val = ver.val;
+				break;
+				}
+			} while((ver = ver.prior) != tv && stamp == s);
+		if(stamp == s)
+			return val;
+		}
 	try
 		{
 		lock.readLock().lock();
-		if(tvals != null)
-			return tvals.val;
-		throw new IllegalStateException(this.toString() + " is unbound.");
+		if(tvals == null)
+			throw new IllegalStateException(this.toString() + " is unbound.");
+		TVal ver = tvals;
+		do
+			{
+			if(ver.point <= point)
+				return ver.val;
+			} while((ver = ver.prior) != tvals);
+		return NO_VERSION;
 		}
 	finally
 		{
@@ -177,15 +230,7 @@ public void touch(){
 
 //*/
 boolean isBound(){
-	try
-		{
-		lock.readLock().lock();
-		return tvals != null;
-		}
-	finally
-		{
-		lock.readLock().unlock();
-		}
+	return tvals != null;
 }
 
 
@@ -195,8 +240,10 @@ public void trimHistory(){
 		lock.writeLock().lock();
 		if(tvals != null)
 			{
+			stamp++;
 			tvals.next = tvals;
 			tvals.prior = tvals;
+			stamp++;
 			}
 		}
 	finally
@@ -217,6 +264,54 @@ public int getHistoryCount(){
 		}	
 }
 
+/**
+ * Returns a map of counts, since this ref was made, of transactions that
+ * involved it and:
+ * <p/>
+ * :faults - found no version old enough to read, and retried
+ * <p/>
+ * :conflicts - retried because another transaction wrote or was writing it
+ * <p/>
+ * :lock-timeouts - timed out waiting for its write lock, and retried
+ * <p/>
+ * :barges - killed another transaction writing it
+ */
+public IPersistentMap getStats(){
+	Object[] init = new Object[2 * STATS];
+	for(int i = 0; i < STATS; i++)
+		{
+		init[2 * i] = STAT_KEYS[i];
+		init[2 * i + 1] = stats.get(i);
+		}
+	return new PersistentArrayMap(init);
+}
+
+/**
+ * Returns the sum of (weigh val) over the prior vals kept in history, e.g.
+ * their estimated sizes, to see what history retains.
+ */
+public long getHistoryWeight(IFn weigh){
+	//weigh outside the lock, which would hold off commits
+	ArrayList vals = new ArrayList();
+	try
+		{
+		lock.readLock().lock();
+		if(tvals != null)
+			{
+			for(TVal tv = tvals.next; tv != tvals; tv = tv.next)
+				vals.add(tv.val);
+			}
+		}
+	finally
+		{
+		lock.readLock().unlock();
+		}
+	long weight = 0;
+	for(Object val : vals)
+		weight += RT.longCast(weigh.invoke(val));
+	return weight;
+}
+
 int histCount(){
 	if(tvals == null)
 		return 0;
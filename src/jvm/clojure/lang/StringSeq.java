@@ -12,7 +12,13 @@
 
 package clojure.lang;
 
-public class StringSeq extends ASeq implements IndexedSeq{
+/*
+ Boxes chars with Character.valueOf, which caches the ASCII range. As the
+ ArraySeq.Elements of chunks of CHUNK_SIZE chars and of reduce, walked by index.
+ */
+public class StringSeq extends ASeq implements IndexedSeq, IChunkedSeq, IReduce, ArraySeq.Elements{
+static final int CHUNK_SIZE = 32;
+
 public final CharSequence s;
 public final int i;
 
@@ -51,4 +57,33 @@ public int index(){
 public int count(){
 	return s.length() - i;
 }
+
+public IChunk chunkedFirst(){
+	return new ArraySeq.Chunk(this, i, Math.min(s.length(), i + CHUNK_SIZE));
+}
+
+public ISeq chunkedNext(){
+	if(i + CHUNK_SIZE < s.length())
+		return new StringSeq(null, s, i + CHUNK_SIZE);
+	return null;
+}
+
+public ISeq chunkedMore(){
+	ISeq ret = chunkedNext();
+	if(ret == null)
+		return PersistentList.EMPTY;
+	return ret;
+}
+
+public Object at(int x){
+	return Character.valueOf(s.charAt(x));
+}
+
+public Object reduce(IFn f){
+	return ArraySeq.reduceRange(this, i + 1, s.length(), f, at(i));
+}
+
+public Object reduce(IFn f, Object start){
+	return ArraySeq.reduceRange(this, i, s.length(), f, start);
+}
 }
@@ -0,0 +1,31 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+/* A mutable box for state confined to one thread at a time, e.g. the state of
+ * a stateful transducer. No atomicity, only visibility across threads. */
+
+final public class Volatile implements IDeref{
+
+volatile Object val;
+
+public Volatile(Object val){
+	this.val = val;
+}
+
+public Object deref(){
+	return val;
+}
+
+public Object reset(Object newval){
+	return val = newval;
+}
+}
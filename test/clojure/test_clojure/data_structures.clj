@@ -13,6 +13,7 @@
   (:use clojure.test
         [clojure.test.generative :exclude (is)])
   (:require [clojure.test-clojure.generators :as cgen]
+            [clojure.test-helper :refer (get-field)]
             [clojure.data.generators :as gen]
             [clojure.string :as string]))
 
@@ -1109,3 +1110,419 @@
         s (into #{} unique-elem)]
     (is (= (hash s)
            (hash-unordered unique-elem)))))
+
+(deftype CollidingKey [k]
+  Object
+  (hashCode [_] (int (mod k 3)))
+  (equals [_ o] (and (instance? CollidingKey o) (= k (.k ^CollidingKey o))))
+  clojure.lang.IHashEq
+  (hasheq [_] (int (mod k 3))))
+
+(defn- assoc-built [kvs]
+  (reduce (fn [m [k v]] (assoc m k v)) clojure.lang.PersistentHashMap/EMPTY kvs))
+
+(deftest test-bulk-hash-map
+  (doseq [kvs [[]
+               [[nil 1]]
+               [[1 1] [1 2] [nil 3] [nil 4]]
+               (map vector (range 100) (range 100 200))
+               (map vector (concat (range 10000) (range 5000)) (range))
+               (map vector (map #(CollidingKey. %) (range 50)) (range))
+               (map vector (concat (map #(CollidingKey. %) (range 10)) (range 100)
+                                   (map #(CollidingKey. %) (range 5)))
+                    (range))]]
+    (let [expected (assoc-built kvs)
+          bulk (clojure.lang.PersistentHashMap/createBulk ^Iterable kvs)
+          bulk-array (clojure.lang.PersistentHashMap/createBulk (object-array (apply concat kvs)))]
+      (is (= expected bulk bulk-array))
+      (is (= (count expected) (count bulk) (count (seq bulk))))
+      (is (every? (fn [[k v]] (= v (get bulk k))) expected))
+      (is (= {} (reduce dissoc bulk (keys expected)))
+          "the bulk trie supports ordinary dissoc")
+      (is (= (assoc expected :x 1) (assoc bulk :x 1)))
+      (is (= expected (persistent! (reduce (fn [t [k v]] (assoc! t k v)) (transient bulk) kvs))))))
+  (is (thrown? IllegalArgumentException (clojure.lang.PersistentHashMap/createBulk (object-array [1 2 3])))))
+
+(deftest test-into-and-zipmap-empty-maps
+  (let [big (map vector (range 1000) (range 1000))]
+    (is (= (assoc-built big) (into {} big) (zipmap (range 1000) (range 1000))))
+    (is (= {:m 1} (meta (into ^{:m 1} {} big))))
+    (is (instance? clojure.lang.PersistentHashMap (into {} big)))
+    (is (= (assoc-built big) (into {} (seq big)) (into {} (into {} big)))))
+  (testing "small results are still array maps in insertion order"
+    (is (instance? clojure.lang.PersistentArrayMap (into {} [[:a 1] [:b 2]])))
+    (is (= [:a :b :c] (keys (into {} [[:a 1] [:b 2] {:c 3}]))))
+    (is (= [:c :b :a] (keys (zipmap [:a :b :c] [1 2 3]))))
+  (testing "zipmap sizes its result like into"
+    (doseq [n [9 20 64 65 1000]]
+      (is (= (class (into {} (map vector (range n) (range n))))
+             (class (zipmap (range n) (range n)))))
+      (is (= (into {} (map vector (range n) (range n))) (zipmap (range n) (range n)))))
+    (is (instance? clojure.lang.PersistentCompactMap (zipmap (range 20) (range 20))))
+    (is (= {0 95 1 96 2 97 3 98 4 99} (zipmap (cycle (range 5)) (range 100))))))
+  (testing "iterates the source once and sizes the result by its distinct keys"
+    (doseq [[n kind] [[20 clojure.lang.PersistentCompactMap]
+                      [64 clojure.lang.PersistentCompactMap]
+                      [65 clojure.lang.PersistentHashMap]]]
+      (let [iterators (atom 0)
+            kvs (map vector (range n) (range n))
+            src (reify Iterable
+                  (iterator [_] (swap! iterators inc) (.iterator ^Iterable kvs)))
+            m (into {} src)]
+        (is (= 1 @iterators))
+        (is (instance? kind m))
+        (is (= (assoc-built kvs) m))))
+    (let [m (into {} (map vector (cycle (range 5)) (range 100)))]
+      (is (instance? clojure.lang.PersistentArrayMap m))
+      (is (= {0 95 1 96 2 97 3 98 4 99} m))))
+  (is (thrown? IllegalArgumentException (into {} [[1 2 3]]))))
+
+(defn- btree-map [& kvs]
+  (clojure.lang.PersistentBTreeMap/create (seq kvs)))
+
+(deftest test-btree-map
+  (let [ks (shuffle (range 5000))
+        ptm (reduce #(assoc %1 %2 (str %2)) (sorted-map) ks)
+        bt (reduce #(assoc %1 %2 (str %2)) (btree-map) ks)
+        half (take 2500 ks)]
+    (is (= ptm bt))
+    (is (= (seq ptm) (seq bt)))
+    (is (= (rseq ptm) (rseq bt)))
+    (is (= 5000 (count bt) (count (seq bt)) (count (rseq bt))))
+    (is (every? #(= (str %) (bt %)) ks))
+    (is (nil? (bt 5000)))
+    (is (= [0 4999] [(.minKey ^clojure.lang.PersistentBTreeMap bt) (.maxKey ^clojure.lang.PersistentBTreeMap bt)]))
+    (is (identical? bt (assoc bt 7 (bt 7))))
+    (is (identical? bt (dissoc bt -1)))
+    (is (thrown? RuntimeException (.assocEx ^clojure.lang.PersistentBTreeMap bt 7 "x")))
+    (testing "removal rebalances down to empty"
+      (is (= (reduce dissoc ptm half) (reduce dissoc bt half)))
+      (is (= (sorted-map) (reduce dissoc bt ks)))
+      (is (nil? (seq (reduce dissoc bt ks)))))
+    (testing "transients"
+      (let [t (persistent! (reduce #(dissoc! %1 %2) (transient bt) half))]
+        (is (= (reduce dissoc ptm half) t))
+        (is (= ptm bt) "source map is unchanged")
+        (is (= ptm (persistent! (reduce #(assoc! %1 %2 (str %2)) (transient t) half))))
+        (is (= (count t) (count (seq t))))))
+    (testing "range scans"
+      (doseq [k [-1 0 1 17 31 32 33 2500 4998 4999 5000 10.5]]
+        (is (= (subseq ptm >= k) (subseq bt >= k)))
+        (is (= (subseq ptm > k) (subseq bt > k)))
+        (is (= (rsubseq ptm <= k) (rsubseq bt <= k)))
+        (is (= (rsubseq ptm < k) (rsubseq bt < k)))
+        (is (= (subseq ptm > k < (+ k 100)) (subseq bt > k < (+ k 100)))))
+      (let [sparse (reduce dissoc bt (filter odd? ks))
+            psparse (reduce dissoc ptm (filter odd? ks))]
+        (doseq [k [1 63 999 4999]]
+          (is (= (subseq psparse >= k) (subseq sparse >= k)))
+          (is (= (rsubseq psparse <= k) (rsubseq sparse <= k))))))
+    (testing "kvreduce"
+      (is (= (reduce-kv (fn [acc k v] (+ acc k (count v))) 0 ptm)
+             (reduce-kv (fn [acc k v] (+ acc k (count v))) 0 bt)))
+      (is (= (range 100) (reduce-kv (fn [acc k _] (if (= k 100) (reduced acc) (conj acc k))) [] bt))))
+    (is (= {:m 1} (meta (dissoc (with-meta bt {:m 1}) 0))))
+    (is (= {:m 1} (meta (empty (with-meta bt {:m 1})))))
+    (is (sorted? bt))
+    (is (reversible? bt)))
+  (testing "comparators"
+    (let [m (clojure.lang.PersistentBTreeMap/create (comparator >) (seq [1 :a 3 :c 2 :b]))]
+      (is (= [3 2 1] (keys m)))
+      (is (= [[2 :b] [1 :a]] (subseq m >= 2)))))
+  (is (thrown? IllegalArgumentException (btree-map 1 2 3))))
+
+(deftest test-btree-set
+  (let [xs (shuffle (range 3000))
+        s (clojure.lang.PersistentBTreeSet/create (seq xs))]
+    (is (= (apply sorted-set xs) s))
+    (is (= (range 3000) (seq s)))
+    (is (= (reverse (range 3000)) (rseq s)))
+    (is (= (range 2990 3000) (subseq s >= 2990)))
+    (is (= (range 10 -1 -1) (rsubseq s <= 10)))
+    (is (= #{} (reduce disj s xs)))
+    (is (= (set (range 0 3000 2))
+           (persistent! (reduce disj! (transient s) (range 1 3000 2)))))
+    (is (identical? s (conj s 5)))
+    (is (= [3 2 1] (seq (clojure.lang.PersistentBTreeSet/create (comparator >) (seq [2 3 1 3])))))))
+
+(deftest test-transient-sorted-collections
+  (let [ks (shuffle (range 3000))
+        assoc-built (reduce #(assoc %1 %2 %2) (sorted-map) ks)
+        m (persistent! (reduce #(assoc! %1 %2 %2) (transient (sorted-map)) ks))]
+    (is (= assoc-built m))
+    (is (= (seq assoc-built) (seq m)))
+    (is (<= (.depth ^clojure.lang.PersistentTreeMap m) 12) "rebuilt trees are balanced")
+    (is (= (into (sorted-map) (map vector ks ks)) m))
+    (is (= (apply sorted-map (interleave ks ks)) m))
+    (testing "rebuilt trees take further persistent updates"
+      (let [m2 (reduce dissoc (reduce #(assoc %1 %2 :x) m (range 0 3000 3)) (range 0 3000 2))]
+        (is (= (filter #(pos? (mod % 2)) (range 3000)) (keys m2)))
+        (is (= :x (m2 3)))
+        (is (= 3001 (count (assoc m 3000 nil))))))
+    (testing "few changes to a large map, and nil values"
+      (let [t (-> (transient m) (assoc! 10 nil) (dissoc! 11) (assoc! -1 :a) (dissoc! -2))]
+        (is (= 3000 (count t)))
+        (is (nil? (get t 10 :none)))
+        (is (= :none (get t 11 :none)))
+        (is (= (-> assoc-built (assoc 10 nil) (dissoc 11) (assoc -1 :a)) (persistent! t)))))
+    (testing "many removals"
+      (is (= (sorted-map 5 5) (persistent! (reduce dissoc! (transient m) (remove #{5} ks)))))
+      (is (= {} (persistent! (reduce dissoc! (transient m) ks))))))
+  (testing "comparators and sets"
+    (let [m (into (sorted-map-by >) (map vector (range 100) (range 100)))]
+      (is (= (reverse (range 100)) (keys m)))
+      (is (= (range 5 -1 -1) (keys (subseq m >= 5)))))
+    (is (= (range 1000) (seq (into (sorted-set) (shuffle (range 1000))))))
+    (is (= [3 2 1] (seq (into (sorted-set-by >) [1 2 3 2]))))
+    (is (= #{1 3} (persistent! (disj! (transient (sorted-set 1 2 3)) 2)))))
+  (let [t (transient (sorted-map))]
+    (persistent! t)
+    (is (thrown? IllegalAccessError (assoc! t 1 1)))))
+
+(deftest test-map-iterators
+  (let [kvs (concat (map vector (range 3000) (range 3000 6000))
+                    (map vector (map #(CollidingKey. %) (range 20)) (range))
+                    [[nil :nil-val]])
+        hash-maps [(assoc-built kvs)
+                   (persistent! (reduce (fn [t [k v]] (assoc! t k v)) (transient {}) kvs))
+                   (reduce dissoc (assoc-built kvs) (range 0 3000 2))
+                   (assoc-built (take 10 kvs))
+                   (dissoc (assoc-built kvs) nil)
+                   clojure.lang.PersistentHashMap/EMPTY (assoc-built [[nil nil]])]
+        sorted-maps [(into (sorted-map) (take 3000 kvs))
+                     (into (sorted-map-by >) (take 100 kvs))
+                     (into (clojure.lang.PersistentBTreeMap/EMPTY) (take 3000 kvs))
+                     (sorted-map)]]
+    (doseq [m (concat hash-maps sorted-maps)]
+      (is (= (seq m) (iterator-seq (.iterator ^Iterable m))))
+      (is (= (keys m) (iterator-seq (.iterator (.keySet ^java.util.Map m))))
+          "key iterator")
+      (is (= (vals m) (iterator-seq (.iterator (.values ^java.util.Map m))))
+          "val iterator")
+      (is (= (set (keys m)) (set (.keySet ^java.util.Map m))))
+      (let [it (.iterator ^Iterable m)]
+        (dotimes [_ (count m)] (.next it))
+        (is (false? (.hasNext it)))
+        (is (thrown? java.util.NoSuchElementException (.next it)))))
+    (doseq [s [(set (keys (first hash-maps))) (into (sorted-set) (range 1000)) #{} #{nil}]]
+      (is (= (seq s) (iterator-seq (.iterator ^Iterable s)))))))
+
+(deftest test-compact-map
+  (let [compact? #(instance? clojure.lang.PersistentCompactMap %)
+        ks (concat [nil :a "b" 1 1.5 'c [1 2] {:x 1}]
+                   (map #(CollidingKey. %) (range 10))
+                   (map keyword (map str "defghijklmnopqrstuvwxyz"))
+                   (range 100 200))]
+    (testing "maps grow from array maps and into hash maps"
+      (doseq [n [8 9 10 20 64 65 66 100]
+              :let [kvs (map vector (take n ks) (range))
+                    m (reduce (fn [m [k v]] (assoc m k v)) {} kvs)
+                    t (persistent! (reduce (fn [t [k v]] (assoc! t k v)) (transient {}) kvs))
+                    expected (assoc-built kvs)]]
+        (is (= expected m t (into {} kvs) (apply hash-map (apply concat kvs))))
+        (is (= (hash expected) (hash m) (hash t)))
+        (is (= (count expected) (count m) (count (seq m)) (count t)))
+        (is (every? (fn [[k v]] (and (= v (get m k) (get t k)) (contains? m k) (= [k v] (find m k))))
+                    kvs))
+        (is (= :none (get m :missing :none) (get t :missing :none)))
+        (is (= (if (< 9 n 65) true false) (compact? m)))
+        (is (= (if (< 8 n 65) true false) (compact? t)))
+        (is (= (set expected) (set m) (set t)))
+        (is (= (reduce + (vals m)) (reduce-kv (fn [acc _ v] (+ acc v)) 0 m)))))
+    (testing "maps shrink back into array maps"
+      (let [kvs (map vector (take 30 ks) (range))
+            m (with-meta (into {} kvs) {:m 1})]
+        (is (compact? m))
+        (loop [m m [k & more] (map first kvs) n 30]
+          (when k
+            (let [m2 (dissoc m k)]
+              (is (= (dec n) (count m2)))
+              (is (not (contains? m2 k)))
+              (is (= {:m 1} (meta m2)))
+              (is (= (apply dissoc (assoc-built kvs) (map first (take (- 31 n) kvs))) m2))
+              (is (= (if (> n 9) true false) (compact? m2)))
+              (recur m2 more (dec n)))))
+        (is (identical? m (dissoc m :missing)))
+        (is (= {:m 1} (meta (empty m))))
+        (is (= m (persistent! (reduce dissoc! (transient (assoc m :extra 1)) [:extra :missing]))))
+        (is (instance? clojure.lang.PersistentArrayMap
+                       (persistent! (reduce dissoc! (transient m) (map first (take 25 kvs))))))))
+    (testing "insertion order"
+      (is (= (range 30) (keys (into {} (map vector (range 30) (range 30))))))
+      (is (= (concat (range 8 -1 -1) (range 9 30)) (keys (reduce #(assoc %1 %2 %2) {} (range 30))))
+          "array maps add keys at the front, compact maps at the end")
+      (is (= (concat (range 5) (range 6 30)) (keys (dissoc (into {} (map vector (range 30) (range 30))) 5)))))
+    (testing "updates"
+      (let [m (into {} (map vector (range 20) (range 20)))]
+        (is (identical? m (assoc m 5 5)))
+        (is (= 50 (get (assoc m 5 50) 5)))
+        (is (= 5 (get m 5)))
+        (is (thrown? RuntimeException (.assocEx ^clojure.lang.IPersistentMap m 5 5)))
+        (is (= 21 (count (.assocEx ^clojure.lang.IPersistentMap m 20 20))))))
+    (testing "literals"
+      (is (compact? {0 0 1 1 2 2 3 3 4 4 5 5 6 6 7 7 8 8 9 9}))
+      (is (thrown? IllegalArgumentException
+                   (read-string "{0 0 1 1 2 2 3 3 4 4 5 5 6 6 7 7 8 8 0 9}")))
+      (is (= {0 0 1 1 2 2 3 3 4 4 5 5 6 6 7 7 8 8 9 9}
+             (binding [*print-dup* true]
+               (read-string (pr-str {0 0 1 1 2 2 3 3 4 4 5 5 6 6 7 7 8 8 9 9}))))))))
+
+(deftest test-queue-traversal
+  (doseq [n [0 1 2 31 32 33 100 1000]
+          popped [0 1 40]
+          :let [q (nth (iterate pop (into clojure.lang.PersistentQueue/EMPTY (range n))) popped)
+                q (into q (range n (+ n 5)))
+                expected (concat (drop popped (range n)) (range n (+ n 5)))]]
+    (is (= expected (seq q)) [n popped])
+    (is (= expected (iterator-seq (.iterator ^Iterable q))))
+    (is (chunked-seq? (seq q)))
+    (is (= expected (map identity q)))
+    (is (= (reduce + expected) (reduce + q) (reduce + (seq q))))
+    (is (= (reduce + 7 expected) (reduce + 7 q) (reduce + 7 (seq q))))
+    (is (= (vec expected) (into [] q) (into [] (map identity) q)))
+    (is (= (take 3 expected) (into [] (take 3) q)))
+    (is (= (hash expected) (hash q))))
+  (is (= 0 (reduce + clojure.lang.PersistentQueue/EMPTY)))
+  (is (= :init (reduce + :init clojure.lang.PersistentQueue/EMPTY))))
+
+(deftest test-persistent-deque
+  (let [EMPTY clojure.lang.PersistentDeque/EMPTY
+        ops [[#(.consFirst ^clojure.lang.PersistentDeque %1 %2) #(into [%2] %1)]
+             [#(.consLast ^clojure.lang.PersistentDeque %1 %2) conj]
+             [(fn [d _] (.popFirst ^clojure.lang.PersistentDeque d)) (fn [v _] (subvec v 1))]
+             [(fn [d _] (.popLast ^clojure.lang.PersistentDeque d)) (fn [v _] (pop v))]]
+        check (fn [d v]
+                (and (= v d) (= d v) (= (count v) (count d)) (= (hash v) (hash d))
+                     (= (seq v) (seq d)) (= (rseq v) (rseq d))
+                     (= (first v) (.peekFirst ^clojure.lang.PersistentDeque d))
+                     (= (peek v) (peek d) (.peekLast ^clojure.lang.PersistentDeque d))
+                     (= (reduce + 0 v) (reduce + d) (reduce + 0 (seq d)))
+                     (= (into [] (map inc) v) (into [] (map inc) d))
+                     (every? #(= (nth v %) (nth d %)) (range (count v)))))]
+    (dotimes [_ 20]
+      (loop [i 0, d EMPTY, v []]
+        (when (< i 300)
+          (is (check d v))
+          (let [[dop vop] (if (empty? v) (rand-nth (take 2 ops)) (rand-nth (concat ops (take 2 ops))))]
+            (recur (inc i) (dop d i) (vop v i)))))))
+  (let [d (into clojure.lang.PersistentDeque/EMPTY (range 100))]
+    (is (= (range 100) d))
+    (is (chunked-seq? (seq (.consFirst d -1))))
+    (is (= (range 1 99) (-> d .popFirst .popLast)))
+    (is (= (range 99 -1 -1) (reduce #(.consFirst ^clojure.lang.PersistentDeque %1 %2)
+                                    clojure.lang.PersistentDeque/EMPTY (range 100))))
+    (is (= 5 (reduce (fn [_ x] (if (= x 5) (reduced x) x)) (.consFirst d 0))))
+    (is (= {:m 1} (meta (pop (with-meta d {:m 1})))))
+    (is (= () (empty d)))
+    (is (nil? (nth d 100 nil)))
+    (is (thrown? IndexOutOfBoundsException (nth d 100)))
+    (is (thrown? IllegalStateException (pop clojure.lang.PersistentDeque/EMPTY)))
+    (is (thrown? IllegalStateException (.popFirst clojure.lang.PersistentDeque/EMPTY))))
+  (testing "transients"
+    (let [t (transient clojure.lang.PersistentDeque/EMPTY)
+          t (reduce #(.conjFirst ^clojure.lang.PersistentDeque$TransientDeque %1 %2) t (range 50))
+          t (reduce conj! t (range 50 100))
+          t (.popFirst ^clojure.lang.PersistentDeque$TransientDeque t)
+          t (.popLast ^clojure.lang.PersistentDeque$TransientDeque t)
+          d (persistent! t)]
+      (is (= (concat (range 48 -1 -1) (range 50 99)) d))
+      (is (thrown? IllegalAccessError (conj! t 1))))
+    (let [t (transient (into clojure.lang.PersistentDeque/EMPTY (range 10)))]
+      (dotimes [_ 9] (.popLast ^clojure.lang.PersistentDeque$TransientDeque t))
+      (is (= [0] (persistent! t)))))
+  (testing "pops from one shared version"
+    (let [n 100000
+          back (into clojure.lang.PersistentDeque/EMPTY (range n))
+          front (reduce #(.consFirst ^clojure.lang.PersistentDeque %1 %2)
+                        clojure.lang.PersistentDeque/EMPTY (range n))
+          pops (fn [f d] (every? #(= (f d) %) (repeat 2000 (f d))))
+          start (System/nanoTime)]
+      (is (pops #(.peekFirst (.popFirst ^clojure.lang.PersistentDeque %)) back))
+      (is (pops #(.peekLast (.popLast ^clojure.lang.PersistentDeque %)) front))
+      (is (pops #(count (.popFirst ^clojure.lang.PersistentDeque %)) (.popLast ^clojure.lang.PersistentDeque back)))
+      (is (pops #(.peekLast (.popLast ^clojure.lang.PersistentDeque %)) (.popFirst ^clojure.lang.PersistentDeque front)))
+      (is (= (range 1 n) (.popFirst ^clojure.lang.PersistentDeque back)))
+      (is (= (range (dec n) 0 -1) (.popLast ^clojure.lang.PersistentDeque front)))
+      ;; moving half the deque on each of those 8000 pops took seconds
+      (is (< (- (System/nanoTime) start) 2e9)))))
+
+(defstruct test-row :a :b :c :d :e :f :g :h :i :j :k :l)
+
+(deftest test-struct-maps
+  (let [s (struct test-row 1 2 3)
+        a (accessor test-row :a)
+        l (accessor test-row :l)]
+    (is (= 12 (count s)))
+    (is (= {:a 1 :b 2 :c 3} (select-keys s [:a :b :c])))
+    (is (nil? (:l s)))
+    (is (= :nf (get s :zz :nf)))
+    (is (= [1 nil] [(a s) (l s)]))
+    (is (thrown? RuntimeException (dissoc s :a)))
+    (is (= s (into {} s)))
+    (testing "added keys"
+      (doseq [extra [[[:x 1]] [[:x 1] [:y 2]] (map #(vector (keyword (str "k" %)) %) (range 30))
+                     [[nil 0] ["str" 1] [1 2] [1.5 3]]]
+              :let [m (reduce conj s extra)
+                    expected (into (into {} s) extra)]]
+        (is (= expected m))
+        (is (= m expected))
+        (is (= (hash expected) (hash m)))
+        (is (= (+ 12 (count extra)) (count m)))
+        (is (every? (fn [[k v]] (and (= v (get m k)) (contains? m k) (= [k v] (find m k)))) extra))
+        (is (= [1 nil] [(a m) (l m)]))
+        (doseq [[k] extra]
+          (is (= (dissoc expected k) (dissoc m k)))
+          (is (= (count (dissoc expected k)) (count (dissoc m k))))
+          (is (= (assoc expected k :new) (assoc m k :new))))
+        (is (= (into {} s) (reduce dissoc m (map first extra))))
+        (is (= (struct test-row) (empty m)))))
+    (testing "struct-map"
+      (is (= {:a 1 :x 2 :l 3} (select-keys (struct-map test-row :x 2 :a 1 :l 3 :x 2) [:a :x :l])))
+      (is (= 13 (count (struct-map test-row :x 1 :x 2))))
+      (is (= 2 (:x (struct-map test-row :x 1 :x 2)))))
+    (testing "shapes per basis are bounded"
+      (let [basis (create-struct :a :b :c)
+            optional [:d :e :f :g :h :i :j :k]
+            ms (doall (for [i (range 2000)]
+                        (reduce #(assoc %1 %2 i) (struct basis 1 2 3) (shuffle optional))))
+            def-class clojure.lang.PersistentStructMap$Def
+            shapes (fn shapes [d]
+                     (inc (reduce + (map shapes (take-nth 2 (rest (get-field def-class 'transitions d)))))))]
+        (is (every? #(= (merge {:a 1 :b 2 :c 3} (zipmap optional (repeat (% :d)))) %) ms))
+        (is (<= (shapes basis) (inc (get-field def-class 'MAX_SHAPES))))))
+    (is (= {:m 1} (meta (assoc (with-meta s {:m 1}) :zz 1))))
+    (is (thrown? IllegalArgumentException (create-struct :a :b :a)))
+    (is (thrown? IllegalArgumentException (accessor test-row :zz)))
+    (is (thrown? RuntimeException (a (struct (create-struct :a) 1))))))
+
+(deftest test-map-key-views
+  (doseq [m [{} {:a 1 :b 2} (apply array-map (range 16)) (zipmap (range 40) (range 40 80))
+             (zipmap (range 1000) (range 1000)) (assoc (zipmap (range 100) (range 100)) nil :n)
+             (into (sorted-map) (zipmap (range 100) (range 100)))
+             (into (sorted-map-by >) (zipmap (range 50) (range 50)))]
+          :let [ks (map key m)
+                vs (map val m)]]
+    (is (= (seq ks) (keys m)))
+    (is (= (seq vs) (vals m)))
+    (when (seq m)
+      (is (chunked-seq? (keys m)))
+      (is (chunked-seq? (vals m)))
+      (is (= (reduce + 0 (filter number? ks)) (reduce + 0 (filter number? (keys m)))))
+      (is (= (vec vs) (into [] (vals m)))))
+    (let [s (.keySet ^java.util.Map m)]
+      (is (set? s))
+      (is (= (set ks) s))
+      (is (= s (set ks)))
+      (is (= (hash (set ks)) (hash s)))
+      (is (= (count m) (count s)))
+      (is (every? #(and (contains? s %) (= % (s %)) (= % (get s %))) ks))
+      (is (nil? (s -1)))
+      (is (= (disj (set ks) (first ks)) (disj s (first ks))))
+      (is (= (conj (set ks) -2) (conj s -2)))
+      (is (identical? s (disj s -1)))
+      (is (= #{} (empty s)))
+      (is (= {:m 1} (meta (conj (with-meta s {:m 1}) -3))))
+      (is (= (set (filter #(and (number? %) (even? %)) ks))
+             (set (filter s (range 0 1000 2)))))))
+  (is (= [0 1 2 3] (seq (.keySet (into (sorted-map) {3 :c 1 :a 0 :z 2 :b})))))
+  (is (= [:b :a] (keys (seq {:b 1 :a 2}))) "keys of an entry seq"))
@@ -89,3 +89,63 @@
                            ([ret k v] (when (= k k-fail)
                                         (throw (IndexOutOfBoundsException.)))))
                          (zipmap (range test-map-count) (repeat :dummy)))))))
+
+(deftest test-fold-vectors
+  (let [v (vec (range 100000))
+        expected (reduce + v)]
+    (doseq [n [1 7 32 100 512 200000]]
+      (is (= expected (r/fold n + + v)))
+      (is (= (reduce + (subvec v 33 70001)) (r/fold n + + (subvec v 33 70001))))
+      (is (= (vec (range 10 1000)) (r/fold n (r/monoid into vector) conj (subvec v 10 1000)))
+          "fold preserves order"))
+    (is (= 0 (r/fold + [])))
+    (is (= 0 (r/fold + (subvec v 5 5))))
+    (is (= (reduce + (range 1 100)) (r/fold 4 + + (subvec (into (vector-of :long) (range 100)) 1)))
+        "subvec over other vector types still folds")))
+
+(deftest test-fold-ranges
+  (doseq [[start end step] [[0 100000 1] [5 70001 7] [1000 -1000 -3] [0 0 1]]
+          :let [r (range start end step)
+                expected (reduce + r)]
+          n [1 7 512 200000]]
+    (is (= expected (r/fold n + + r)))
+    (is (= (vec r) (r/fold n (r/monoid into vector) conj r))
+        "fold preserves order")))
+
+(deftest test-fold-array-seqs
+  (doseq [size [1 31 1000 20000]
+          :let [xs (range size)]
+          [kind s] [[:object (seq (object-array xs))]
+                    [:long (seq (long-array xs))]
+                    [:int (seq (int-array xs))]
+                    [:double (seq (double-array xs))]
+                    [:short (seq (short-array xs))]
+                    [:object-tail (next (seq (object-array xs)))]
+                    [:long-tail (next (seq (long-array xs)))]]
+          n [1 7 512]]
+    (is (== (reduce + (seq s)) (r/fold n + + s)) [kind size n])
+    (is (= (vec s) (r/fold n (r/monoid into vector) conj s)) "fold preserves order")))
+
+(deftest test-fold-hash-maps
+  (doseq [size [0 1 20 1000 50000]
+          :let [m (into {} (map (juxt identity -) (range size)))
+                m (assoc m nil 0)
+                expected (reduce + (vals m))]
+          n [1 8 64 512 100000]]
+    (is (= expected (r/fold n + (fn [acc k v] (+ acc v)) m)))
+    (is (= (set (keys m))
+           (r/fold n (r/monoid into hash-set) (fn [acc k v] (conj acc k)) m)))))
+
+(deftest test-fold-in-chosen-pool
+  (let [pool (java.util.concurrent.ForkJoinPool. 2)
+        threads (atom #{})
+        m (zipmap (range 20000) (range 20000))]
+    (try
+      (is (= (reduce + (range 20000))
+             (binding [r/*fold-pool* pool]
+               (r/fold 100 + (fn [acc k v]
+                               (swap! threads conj (Thread/currentThread))
+                               (+ acc v))
+                       m))))
+      (is (every? #(identical? pool (.getPool ^java.util.concurrent.ForkJoinWorkerThread %)) @threads))
+      (finally (.shutdown pool)))))
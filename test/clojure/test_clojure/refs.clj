@@ -20,3 +20,203 @@
 ; ensure ref-set alter commute
 ; set-validator get-validator
 
+
+(deftest test-snapshot-reads
+  (let [a (ref 0)
+        b (ref 0)
+        done (atom false)
+        writers (doall (for [_ (range 4)]
+                         (future
+                           (dotimes [_ 2000]
+                             (dosync (alter a inc) (alter b inc))))))
+        readers (doall (for [_ (range 4)]
+                         (future
+                           (loop [bad 0]
+                             (if @done
+                               bad
+                               (recur (if (dosync (= @a @b)) bad (inc bad))))))))
+        trimmer (future
+                  (while (not @done)
+                    (.trimHistory ^clojure.lang.Ref a)
+                    (Thread/yield)))]
+    (doseq [w writers] @w)
+    (reset! done true)
+    @trimmer
+    (is (every? zero? (map deref readers)) "transactions see a consistent snapshot")
+    (is (= 8000 @a @b))))
+
+(deftest test-deref-out-of-transaction
+  (let [r (ref 0 :min-history 2 :max-history 5)]
+    (dotimes [i 10]
+      (dosync (ref-set r i))
+      (is (= i @r)))
+    (is (= 2 (ref-history-count r)))
+    (is (= 9 (dosync @r))))
+  (let [r (ref 0 :min-history 5)
+        writer (future (dotimes [_ 20000] (dosync (alter r inc))))
+        reader (future (loop [last 0 backwards 0]
+                         (if (future-done? writer)
+                           backwards
+                           (let [v @r]
+                             (recur v (if (< v last) (inc backwards) backwards))))))]
+    @writer
+    (is (zero? @reader) "never reads a value older than one already read")
+    (is (= 20000 @r))))
+
+(deftest test-stm-stats
+  (let [before (clojure.lang.LockingTransaction/getStats)
+        r (ref 0)
+        started (promise)
+        release (promise)
+        reader (future (dosync (deliver started true) @release @r))]
+    @started
+    (dosync (ref-set r 1))
+    (deliver release true)
+    (is (= 1 @reader))
+    (is (= {:faults 1 :conflicts 0 :lock-timeouts 0 :barges 0} (.getStats ^clojure.lang.Ref r)))
+    (let [started (promise)
+          release (promise)
+          writer (future (dosync (ref-set r 2) (deliver started true) @release))
+          _ @started
+          other (future (dosync (alter r inc)))]
+      (Thread/sleep 50)
+      (deliver release true)
+      @writer
+      (is (= 3 @other))
+      (is (pos? (:conflicts (.getStats ^clojure.lang.Ref r)))))
+    (let [after (clojure.lang.LockingTransaction/getStats)
+          delta #(- (% after) (% before))]
+      (is (<= 4 (delta :commits)))
+      (is (<= 2 (delta :retries)))
+      (is (<= 1 (delta :faults)))
+      (is (<= 1 (delta :conflicts)))
+      (is (= (delta :commits)
+             (- (reduce + (:retry-histogram after)) (reduce + (:retry-histogram before)))
+             (- (reduce + (:commit-latency-histogram after)) (reduce + (:commit-latency-histogram before))))))))
+
+(deftest test-contention-managers
+  (doseq [cm [nil :aged :oldest-first :karma :backoff
+              (clojure.lang.LockingTransaction$Backoff. 1000 100000)]]
+    (let [a (ref 0)
+          b (ref 0)
+          writers (doall (for [_ (range 8)]
+                           (future
+                             (dotimes [_ 200]
+                               (sync {:contention-manager cm}
+                                 (alter a inc)
+                                 (commute b inc))))))]
+      (doseq [w writers] @w)
+      (is (= 1600 @a @b) (str cm))))
+  (let [flags :outer]
+    (is (= :outer (sync {:contention-manager :karma} flags)) "flags don't shadow locals"))
+  (is (= 1 (dosync (sync {:contention-manager :no-such} 1))) "nested sync ignores flags")
+  (is (thrown? IllegalArgumentException (sync {:contention-manager :no-such} 1)))
+  (is (thrown? IllegalArgumentException (clojure.lang.LockingTransaction$Backoff. 10 1)))
+  (let [prev (clojure.lang.LockingTransaction/getContentionManager)]
+    (try
+      (clojure.lang.LockingTransaction/setContentionManager :karma)
+      (is (identical? clojure.lang.LockingTransaction/KARMA
+                      (clojure.lang.LockingTransaction/getContentionManager)))
+      (let [r (ref 0)]
+        (dosync (alter r inc))
+        (is (= 1 @r)))
+      (finally
+        (clojure.lang.LockingTransaction/setContentionManager prev)))))
+
+(deftest test-read-only-transactions
+  (let [a (ref 1)
+        b (ref 2)]
+    (is (= 3 (sync {:read-only true} (+ @a (ensure b)))))
+    (is (thrown? IllegalStateException (sync {:read-only true} (ref-set a 2))))
+    (is (thrown? IllegalStateException (sync {:read-only true} (alter a inc))))
+    (is (thrown? IllegalStateException (sync {:read-only true} (commute a inc))))
+    (is (thrown? IllegalStateException (sync {:read-only true} (dosync (alter a inc)))))
+    (is (= 2 (dosync (sync {:read-only true} (alter a inc)))) "nested in a read-write transaction")
+    (is (= 1 (dosync (alter a dec))))
+    (let [ag (agent 0)]
+      (sync {:read-only true} (send ag + @a @b))
+      (await ag)
+      (is (= 3 @ag)))
+    (testing "retries at a later read point when history is too short"
+      (let [started (promise)
+            release (promise)
+            reader (future (sync {:read-only true} (deliver started true) @release [@a @b]))]
+        @started
+        (dosync (alter a inc) (alter b inc))
+        (deliver release true)
+        (is (= [2 3] @reader))))
+    (testing "consistent snapshots under concurrent writes"
+      (let [writers (doall (for [_ (range 4)]
+                             (future (dotimes [_ 1000] (dosync (alter a inc) (alter b inc))))))
+            readers (doall (for [_ (range 4)]
+                             (future (every? true? (repeatedly 2000 #(sync {:read-only true} (= 1 (- @b @a))))))))]
+        (doseq [w writers] @w)
+        (is (every? deref readers))
+        (is (= 4002 @a))))))
+
+(deftest test-history-sizing
+  (let [r (ref [] :min-history 4)]
+    (dotimes [i 6] (dosync (alter r conj i)))
+    (is (= 4 (ref-history-count r)))
+    (is (= (+ 2 3 4 5) (.getHistoryWeight ^clojure.lang.Ref r count)))
+    (.setMinHistory ^clojure.lang.Ref r 1)
+    (dosync (alter r conj 6))
+    (is (= 3 (ref-history-count r)) "shrinks a val per commit when no transaction can read it")
+    (dotimes [i 5] (dosync (alter r conj i)))
+    (is (= 1 (ref-history-count r)))
+    (is (= 11 (.getHistoryWeight ^clojure.lang.Ref r count)))
+    (is (= 1 (.getHistoryWeight ^clojure.lang.Ref r (fn [_] (dosync (alter r conj :w)) 1)))
+        "weighs without holding off commits"))
+  (let [r (ref 0 :min-history 3)
+        _ (dotimes [i 3] (dosync (alter r inc)))
+        _ (.setMinHistory ^clojure.lang.Ref r 0)
+        started (promise)
+        release (promise)
+        reader (future (dosync (deliver started true) @release @r))]
+    @started
+    (dotimes [i 2] (dosync (alter r inc)))
+    (is (= 2 (ref-history-count r)) "keeps what a running transaction may read")
+    (deliver release true)
+    (is (= 3 @reader))
+    (is (= 0 (:faults (.getStats ^clojure.lang.Ref r))))
+    (dotimes [i 2] (dosync (alter r inc)))
+    (is (= 0 (ref-history-count r)) "and drops it once none can"))
+  (let [r (ref 0)
+        started (promise)
+        release (promise)
+        reader (future (dosync (deliver started true) @release @r))]
+    @started
+    (dosync (alter r inc))
+    (deliver release true)
+    @reader
+    (dosync (alter r inc))
+    (is (= 1 (ref-history-count r)) "grows after a fault")
+    (.setMaxHistory ^clojure.lang.Ref r 0)
+    (dosync (alter r inc))
+    (is (= 0 (ref-history-count r)) "shrinks past max-history")))
+
+(deftest test-barged-retries
+  (let [before (clojure.lang.LockingTransaction/getStats)
+        r (ref nil)
+        old-started (promise)
+        young-wrote (promise)
+        release (promise)
+        old (future (dosync (deliver old-started true)
+                            @young-wrote
+                            (Thread/sleep 20)
+                            (ref-set r :old)))
+        _ @old-started
+        young (future (dosync (ref-set r :young)
+                              (deliver young-wrote true)
+                              @release
+                              :young))]
+    (is (= :old @old))
+    (deliver release true)
+    (is (= :young @young))
+    (is (= :young @r))
+    (is (= 1 (:barges (.getStats ^clojure.lang.Ref r))))
+    (let [after (clojure.lang.LockingTransaction/getStats)]
+      (is (<= 1 (- (:barged after) (:barged before))))
+      (is (<= 1 (- (:retries after) (:retries before))))
+      (is (<= 1 (- (reduce + (rest (:retry-histogram after)))
+                   (reduce + (rest (:retry-histogram before)))))))))
@@ -114,6 +114,98 @@
       (lazy-seq "abc") '(\a \b \c)
       (lazy-seq (into-array [1 2])) '(1 2) ))
 
+(deftest test-iterator-seq
+  (doseq [n [1 2 31 32 33 64 100]
+          :let [al (java.util.ArrayList. ^java.util.Collection (range n))]]
+    (let [s (iterator-seq (.iterator al))]
+      (is (= (range n) s) n)
+      (is (chunked-seq? s))
+      (is (= (map inc (range n)) (map inc s)))
+      (is (= (filter even? (range n)) (filter even? s)))
+      (is (identical? (next (nthnext s 31)) (next (nthnext s 31))) "caches the next chunk")
+      (is (= {:m 1} (meta (with-meta s {:m 1}))))
+      (is (= (range n) (with-meta s {:m 1}))))
+    (let [s (enumeration-seq (java.util.Collections/enumeration al))]
+      (is (= (range n) s) n)
+      (is (chunked-seq? s))
+      (is (= (map inc (range n)) (map inc s))))
+    (is (= (range n) (seq al))))
+  (is (nil? (iterator-seq (.iterator (java.util.ArrayList.)))))
+  (is (nil? (enumeration-seq (java.util.Collections/enumeration [])))))
+
+(deftest test-chunked-array-seqs
+  (doseq [n [1 31 32 33 100]
+          :let [xs (range n)]
+          s [(seq (object-array xs)) (seq (long-array xs)) (seq (int-array xs))
+             (seq (double-array xs)) (seq (float-array xs)) (seq (byte-array xs))
+             (seq (short-array xs)) (seq (char-array (map char xs)))]
+          :let [expected (vec s)]]
+    (is (chunked-seq? s))
+    (is (= n (count s)))
+    (is (= (min n 32) (count (chunk-first s))))
+    (is (= expected (map identity s) (into [] (map identity) s)))
+    (is (= (filter #(odd? (int %)) expected) (filter #(odd? (int %)) s)))
+    (is (= (rest expected) (map identity (next s))))
+    (is (= (first expected) (reduce (fn [_ x] (reduced x)) nil (map identity s)))))
+  (let [a (object-array [1 2 3])
+        s (seq a)]
+    (is (identical? a (.array ^clojure.lang.ArraySeq s)))
+    (aset a 1 :x)
+    (is (= :x (.nth (chunk-first s) 1)) "chunks share the array")))
+
+(deftest test-string-seq
+  (doseq [n [1 31 32 33 100]
+          :let [chars (map #(char (+ 40 %)) (range n))
+                ^String text (apply str chars)]
+          cs [text (StringBuilder. text)]]
+    (let [s (seq cs)]
+      (is (= chars s) n)
+      (is (chunked-seq? s))
+      (is (= n (count s)))
+      (is (= (map int chars) (map int s)))
+      (is (= (rest chars) (rest s)))
+      (is (= (apply str chars) (str (reduce str s))))
+      (is (= (apply str \_ chars) (reduce str "_" s)))
+      (is (= (apply str \_ (rest chars)) (reduce str "_" (next s))))
+      (is (= (count (remove #{\a} chars)) (count (into [] (remove #{\a}) cs))))
+      (is (= (first chars) (reduce (fn [_ c] (reduced c)) nil s)))
+      (is (= {:m 1} (meta (with-meta s {:m 1}))))))
+  (is (nil? (seq "")))
+  (is (identical? (first "a") (first (seq (StringBuilder. "a")))) "ascii chars are cached"))
+
+(deftest test-seq-hashes
+  (is (= (hash []) (hash ()) (hash (lazy-seq nil)) (hash (map identity []))))
+  (doseq [n [1 31 32 33 100]
+          :let [xs (range n)
+                expected (hash (vec xs))]]
+    (is (= expected (hash (apply list xs)) (hash (lazy-seq xs)) (hash (map identity xs))
+           (hash (seq (object-array xs))) (hash (seq (long-array xs))) (hash (subvec (vec (cons -1 xs)) 1))
+           (hash (concat (vec xs) ())) (hash (sequence (map identity) xs)) (hash (seq (vec xs))))))
+  (let [calls (atom 0)
+        x (reify clojure.lang.IHashEq (hasheq [_] (swap! calls inc) 7))]
+    (doseq [s [(map identity (repeat 40 x)) (lazy-seq (apply list (repeat 40 x)))]]
+      (reset! calls 0)
+      (is (= (hash s) (hash s) (hash (vec (repeat 40 x)))))
+      (is (= 80 @calls) "realized seqs hash their elements once"))))
+
+(deftest test-lazy-seq-realization
+  (testing "contended realization runs each thunk once"
+    (dotimes [_ 20]
+      (let [calls (atom 0)
+            s (map #(do (swap! calls inc) %) (take 1000 (iterate inc 0)))
+            sums (doall (for [_ (range 4)] (future (reduce + s))))]
+        (is (every? #(= 499500 @%) sums))
+        (is (= 1000 @calls)))))
+  (testing "nested lazy seqs are unwrapped without recursion"
+    (is (= [1] (seq (reduce (fn [s _] (lazy-seq s)) [1] (range 100000)))))
+    (is (= [100000] (filter #(= % 100000) (range 100001)))))
+  (let [s (lazy-seq [1 2])]
+    (is (not (realized? s)))
+    (is (= [1 2] s))
+    (is (realized? s))
+    (is (= {:m 1} (meta (with-meta s {:m 1}))))
+    (is (= [1 2] (with-meta s {:m 1})))))
+
 
 (deftest test-seq
   (is (not (seq? (seq []))))
@@ -957,6 +1049,48 @@
       (range 3 9 10) '(3)
       (range 3 9 -1) () ))
 
+(deftest test-long-range
+  (let [lazy-range (fn [start end step]
+                     ;; the generic path, stepping with + and comparing with end
+                     (let [cmp (if (pos? step) < >)]
+                       (take-while #(cmp % end) (iterate #(+ % step) start))))]
+    (doseq [start [0 1 -5 31 1000]
+            end [0 1 -5 32 33 64 65 1000 -1000 2.5 -2.5 31.0 1000.5]
+            step [1 2 -1 -3 32 33 -31]
+            :let [r (range start end step)
+                  expected (lazy-range start end step)]]
+      (is (= expected r))
+      (is (= (count expected) (count r)))
+      (is (= (seq expected) (iterator-seq (.iterator ^Iterable r))))
+      (is (= (reduce + 0 expected) (reduce + 0 r)))
+      (is (= (reduce conj [] expected) (reduce conj [] r)))
+      (is (= (map inc expected) (map inc r)) "chunked seq")
+      (is (every? #(instance? Long %) r))))
+  (testing "primitive reducing fns"
+    (is (= 499999500000 (reduce (fn ^long [^long acc ^long x] (+ acc x)) 0 (range 1000000))))
+    (is (= [0 1 2] (reduce (fn [acc ^long x] (conj acc x)) [] (range 3))))
+    (is (= 45 (reduce (fn [^long acc ^long x] (+ acc x)) 0 (range 10))))
+    (is (= 4.5 (reduce (fn [acc ^long x] (+ acc (/ x 10.0))) 0 (range 10))))
+    (is (= 4.5 (reduce (fn [^double acc ^long x] (+ acc (/ x 10.0))) 0.0 (range 10)))))
+  (testing "reduced"
+    (is (= 10 (reduce (fn [acc x] (if (= x 10) (reduced x) acc)) 0 (range 100))))
+    (is (= 10 (reduce (fn [acc ^long x] (if (= x 10) (reduced x) acc)) 0 (range 100))))
+    (is (= 4 (reduce (fn [_ x] (reduced x)) (range 3 10))))
+    (is (= 3 (reduce + (range 3 4))))
+    (is (= 0 (reduce + (range 0)))))
+  (testing "chunks drop down to empty"
+    (let [c (chunk-first (range 3 5))]
+      (is (= 1 (count (.dropFirst c))))
+      (is (= 0 (count (.dropFirst (.dropFirst c)))))
+      (is (thrown? IllegalStateException (.dropFirst (.dropFirst (.dropFirst c)))))))
+  (testing "ranges outside the long interval stay lazy"
+    (is (= '(0 0.5 1.0 1.5) (range 0 2 0.5)))
+    (is (= '(0 1/2 1 3/2) (range 0 2 1/2)))
+    (is (= '(1N 2N) (range 1N 3)))
+    (is (= '(0 1 2) (take 3 (range))))
+    (is (= '(0 1 2) (take 3 (range 0 (Math/pow 2 60)))))
+    (is (= '(5 5 5) (take 3 (range 5 10 0))))))
+
 
 (deftest test-empty?
   (are [x] (empty? x)
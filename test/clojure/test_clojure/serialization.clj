@@ -66,6 +66,9 @@
     {:a 5 :b 0}
     (apply array-map (range 100))
     (apply hash-map (range 100))
+    (clojure.lang.PersistentBTreeMap/create (seq (range 10)))
+    (clojure.lang.PersistentBTreeMap/create (seq (range 2000)))
+    (persistent! (reduce #(assoc! %1 %2 %2) (transient (clojure.lang.PersistentBTreeMap/create (seq [0 0]))) (range 500)))
 
     ; sets
     #{}
@@ -82,6 +85,8 @@
     (apply sorted-set (reverse (range 100)))
     (apply sorted-set (reverse (range 500)))
     (apply sorted-set (reverse (range 1000)))
+    (clojure.lang.PersistentBTreeSet/create (seq (range 10)))
+    (clojure.lang.PersistentBTreeSet/create (seq (range 1000)))
 
     ; queues
     clojure.lang.PersistentQueue/EMPTY
@@ -113,7 +118,9 @@
     ; misc seqs
     (seq "s11n")
     (range 50)
-    (rseq (apply sorted-set (reverse (range 100))))))
+    (rseq (apply sorted-set (reverse (range 100))))
+    (keys (apply hash-map (range 100)))
+    (vals (apply array-map (range 10)))))
 
 (deftest misc-serialization
   (are [v] (= v (-> v serialize deserialize))
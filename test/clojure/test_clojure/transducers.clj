@@ -0,0 +1,98 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+(ns clojure.test-clojure.transducers
+  (:use clojure.test))
+
+(def sources
+  {:vector (vec (range 100))
+   :range (range 100)
+   :list (apply list (range 100))
+   :lazy (map identity (range 100))
+   :array-seq (seq (object-array (range 100)))
+   :long-vector (into (vector-of :long) (range 100))})
+
+(deftest test-transducers-match-seq-fns
+  (doseq [[xf seq-fn] [[(map inc) #(map inc %)]
+                       [(filter even?) #(filter even? %)]
+                       [(remove even?) #(remove even? %)]
+                       [(take 7) #(take 7 %)]
+                       [(take 0) #(take 0 %)]
+                       [(take-while #(< % 10)) #(take-while (fn [x] (< x 10)) %)]
+                       [(drop 95) #(drop 95 %)]
+                       [(drop-while #(< % 90)) #(drop-while (fn [x] (< x 90)) %)]
+                       [(take-nth 7) #(take-nth 7 %)]
+                       [(keep #(when (odd? %) (* % %))) #(keep (fn [x] (when (odd? x) (* x x))) %)]
+                       [(keep-indexed #(when (even? %1) %2)) #(keep-indexed (fn [i x] (when (even? i) x)) %)]
+                       [(map-indexed vector) #(map-indexed vector %)]
+                       [(mapcat #(repeat % %)) #(mapcat (fn [x] (repeat x x)) %)]
+                       [(comp (map vector) cat) #(map identity %)]
+                       [(partition-by #(quot % 7)) #(map vec (partition-by (fn [x] (quot x 7)) %))]
+                       [(partition-all 9) #(map vec (partition-all 9 %))]
+                       [(comp (map #(mod % 7)) (distinct)) #(distinct (map (fn [x] (mod x 7)) %))]
+                       [(comp (map #(quot % 3)) (dedupe)) #(dedupe (map (fn [x] (quot x 3)) %))]
+                       [(replace {1 -1 50 -50}) #(replace {1 -1 50 -50} %)]
+                       [(interpose :sep) #(interpose :sep %)]
+                       [(comp (filter odd?) (map inc) (partition-all 3) (take 5) cat)
+                        #(apply concat (take 5 (partition-all 3 (map inc (filter odd? %)))))]]
+          [kind coll] sources]
+    (let [expected (seq-fn coll)]
+      (is (= expected (sequence xf coll)) kind)
+      (is (= (vec expected) (into [] xf coll)) kind)
+      (is (= (reverse expected) (into () xf coll)) kind)
+      (is (= (vec expected) (transduce xf conj coll)) kind)
+      (is (= (count expected) (transduce xf (completing (fn [n _] (inc n))) 0 coll)) kind))))
+
+(deftest test-transduce
+  (is (= 5050 (transduce (map inc) + (range 100))))
+  (is (= 5150 (transduce (map inc) + 100 (range 100))))
+  (is (= 0 (transduce (map inc) + [])))
+  (is (= "1-2-3" (transduce (interpose "-") (completing #(.append ^StringBuilder %1 %2) str)
+                            (StringBuilder.) [1 2 3])))
+  (testing "completion runs after early termination"
+    (is (= [[0 1 2] [3 4]] (transduce (comp (take 5) (partition-all 3)) conj [] (range))))
+    (is (= [[0 1 2]] (transduce (comp (partition-all 3) (take 1)) conj [] (range)))))
+  (testing "infinite sources are only consumed as needed"
+    (let [realized (atom 0)
+          src (map #(do (swap! realized inc) %) (iterate inc 0))]
+      (is (= [0 2 4] (into [] (comp (filter even?) (take 3)) src)))
+      (is (<= @realized 32)))))
+
+(deftest test-sequence
+  (is (= () (sequence (map inc) nil)))
+  (is (= () (sequence (filter neg?) (range 10))))
+  (is (= [1 2 3] (sequence (map inc) [0 1 2])))
+  (is (= [0 1 2] (take 3 (sequence (map identity) (range)))) "lazy over infinite sources")
+  (is (= [[0 1] [2 3] [4]] (sequence (partition-all 2) (range 5))) "flushes on completion")
+  (is (= [[0 1]] (sequence (comp (partition-all 2) (take 1)) (range))))
+  (is (chunked-seq? (seq (sequence (map inc) (range 10)))))
+  (let [calls (atom 0)
+        s (sequence (map #(do (swap! calls inc) %)) (range 100))]
+    (is (= 0 (first s)))
+    (is (= 1 @calls) "pulls one input at a time")))
+
+(deftest test-volatile
+  (let [v (volatile! 1)]
+    (is (volatile? v))
+    (is (not (volatile? (atom 1))))
+    (is (= 1 @v))
+    (is (= 5 (vreset! v 5)))
+    (is (= 7 (vswap! v + 2)))
+    (is (= 7 @v))))
+
+(deftest test-reduced-helpers
+  (is (= 1 (unreduced (reduced 1))))
+  (is (= 1 (unreduced 1)))
+  (is (reduced? (ensure-reduced 1)))
+  (is (= 1 @(ensure-reduced (reduced 1)))))
+
+(deftest test-into-transducer
+  (is (= #{2 4} (into #{} (comp (filter odd?) (map inc)) [1 2 3])))
+  (is (= {:a 1} (into {} (filter (comp keyword? key)) {:a 1 "b" 2})))
+  (is (= {:m 1} (meta (into ^{:m 1} [] (map inc) [1 2]))))
+  (is (= '(3 2) (into () (map inc) [1 2]))))
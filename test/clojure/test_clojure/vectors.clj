@@ -391,3 +391,115 @@
     (is (thrown? IndexOutOfBoundsException (v2 7)))
     (is (= (v1 50) (v2 0)))
     (is (= (v1 56) (v2 6)))))
+
+(deftest test-primitive-persistent-vectors
+  (doseq [[empty-v coerce] [[clojure.lang.PersistentLongVector/EMPTY long]
+                            [clojure.lang.PersistentDoubleVector/EMPTY double]]
+          n [0 1 31 32 33 1024 1025 33000]]
+    (let [xs (map coerce (range n))
+          v (into empty-v xs)]
+      (testing "equivalent to a persistent vector"
+        (is (= (vec xs) v))
+        (is (= (count xs) (count v)))
+        (is (= (hash (vec xs)) (hash v)))
+        (is (= (seq xs) (seq v)))
+        (is (= (seq (reverse xs)) (rseq v))))
+      (testing "reduce and reduce-kv"
+        (is (= (reduce + 0 xs) (reduce + 0 v)))
+        (is (= (reduce + xs) (reduce + v)))
+        (is (= (reduce-kv (fn [r i x] (+ r i x)) 0 (vec xs))
+               (reduce-kv (fn [r i x] (+ r i x)) 0 v)))
+        (when (> n 5)
+          (is (= (coerce 5) (reduce (fn [_ x] (if (== x 5) (reduced x) x)) nil v))
+              "reduced stops the reduction"))
+        (is (= (take 3 xs) (reduce (fn [acc x] (if (= 3 (count acc)) (reduced acc) (conj acc x))) [] v))))
+      (when (pos? n)
+        (testing "assoc and pop"
+          (let [i (quot n 2)
+                v2 (assoc v i 42)]
+            (is (= (coerce 42) (nth v2 i)))
+            (is (= (assoc (vec xs) i (coerce 42)) v2))
+            (is (= (coerce i) (nth v i)) "original unchanged")
+            (is (= (pop (vec xs)) (pop v)))
+            (is (= (butlast xs) (seq (reduce (fn [v _] (pop v)) v (range 1)))))))
+        (testing "transients"
+          (let [t (transient v)
+                t (assoc! t 0 7)
+                t (pop! t)
+                t (conj! t 8)]
+            (is (= (conj (pop (assoc (vec xs) 0 (coerce 7))) (coerce 8))
+                   (persistent! t))))
+          (is (= (seq v) (seq (persistent! (reduce conj! (transient (empty v)) xs))))))))))
+
+(deftest test-primitive-vector-unboxed-paths
+  (let [v (clojure.lang.PersistentLongVector/create (long-array (range 100)))]
+    (is (= 4950 (.reduceLong v (fn ^long [^long a ^long b] (+ a b)) 0)))
+    (is (= 99 (.nthLong v 99)))
+    (is (= 4950 (reduce (fn [acc ^long x] (+ acc x)) 0 v))))
+  (let [v (clojure.lang.PersistentDoubleVector/create (double-array (range 100)))]
+    (is (== 4950.0 (.reduceDouble v (fn ^double [^double a ^double b] (+ a b)) 0.0)))
+    (is (== 99.0 (.nthDouble v 99)))
+    (is (thrown? ClassCastException (conj v "x")))))
+
+(defn- rrb [xs]
+  (clojure.lang.PersistentRRBVector/create (vec xs)))
+
+(defn- check-rrb [^clojure.lang.PersistentRRBVector v expected]
+  (let [expected (vec expected)]
+    (and (= expected v)
+         (= (count expected) (count v))
+         (= (seq expected) (seq v))
+         (= (seq expected) (iterator-seq (.iterator v)))
+         (= expected (map #(nth v %) (range (count v))))
+         (= expected (reduce conj [] v))
+         (= (map-indexed vector expected) (reduce-kv (fn [acc i x] (conj acc [i x])) [] v))
+         (= expected (.toPersistentVector v)))))
+
+(deftest test-rrb-vector-basics
+  (doseq [n [0 1 31 32 33 1024 1056 1057 40000]]
+    (let [v (rrb (range n))]
+      (is (check-rrb v (vec (range n))))
+      (is (check-rrb (conj v :x) (conj (vec (range n)) :x)))
+      (when (pos? n)
+        (is (check-rrb (pop v) (pop (vec (range n)))))
+        (is (check-rrb (assoc v (quot n 2) :y) (assoc (vec (range n)) (quot n 2) :y))))))
+  (is (thrown? IllegalStateException (pop clojure.lang.PersistentRRBVector/EMPTY)))
+  (is (thrown? IndexOutOfBoundsException (nth (rrb (range 10)) 10)))
+  (is (= :none (nth (rrb (range 10)) -1 :none)))
+  (is (= {:m 1} (meta (conj (with-meta (rrb [1]) {:m 1}) 2)))))
+
+(deftest test-rrb-vector-concat-and-slice
+  (let [r (java.util.Random. 42)
+        pieces (for [i (range 60)] (range (* i 1000) (+ (* i 1000) (.nextInt r 1200))))
+        v (reduce (fn [^clojure.lang.PersistentRRBVector acc p] (.concat acc (rrb p)))
+                  clojure.lang.PersistentRRBVector/EMPTY pieces)
+        expected (vec (apply concat pieces))]
+    (is (check-rrb v expected))
+    (testing "slices"
+      (doseq [[s e] [[0 0] [0 1] [5 37] [100 1100] [0 (count v)]
+                     [(quot (count v) 3) (* 2 (quot (count v) 3))]
+                     [(- (count v) 40) (count v)] [(- (count v) 3) (- (count v) 1)]]]
+        (is (check-rrb (.slice ^clojure.lang.PersistentRRBVector v s e) (subvec expected s e))))
+      (is (thrown? IndexOutOfBoundsException (.slice ^clojure.lang.PersistentRRBVector v 5 4))))
+    (testing "concatenating slices, and further updates"
+      (let [a (.slice ^clojure.lang.PersistentRRBVector v 7 20000)
+            b (.slice ^clojure.lang.PersistentRRBVector v 1 19999)
+            ab (.concat a b)
+            expected-ab (into (subvec expected 7 20000) (subvec expected 1 19999))]
+        (is (check-rrb ab expected-ab))
+        (is (check-rrb (-> ab (conj 1) (conj 2) pop (assoc 12345 -1))
+                       (-> expected-ab (conj 1) (conj 2) pop (assoc 12345 -1))))
+        (is (check-rrb (nth (iterate pop ab) 5000) (subvec expected-ab 0 (- (count expected-ab) 5000))))))
+    (testing "many small concatenations"
+      (let [small (reduce (fn [^clojure.lang.PersistentRRBVector acc i] (.concat acc (rrb (range i (+ i (mod i 40))))))
+                          clojure.lang.PersistentRRBVector/EMPTY (range 1000))]
+        (is (check-rrb small (vec (mapcat #(range % (+ % (mod % 40))) (range 1000)))))
+        (is (<= (.shift ^clojure.lang.PersistentRRBVector small) 15))))
+    (testing "insertAt"
+      (is (check-rrb (.insertAt ^clojure.lang.PersistentRRBVector v 1000 :z)
+                     (-> (subvec expected 0 1000) (conj :z) (into (subvec expected 1000))))))
+    (testing "concat with other vectors"
+      (is (check-rrb (.concat ^clojure.lang.PersistentRRBVector (rrb (range 100)) (vec (range 100 5000)))
+                     (vec (range 5000))))
+      (is (check-rrb (.concat ^clojure.lang.PersistentRRBVector (rrb (range 100)) (vector-of :long 100 101))
+                     (vec (range 102)))))))